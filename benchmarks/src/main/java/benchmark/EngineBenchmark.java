@@ -0,0 +1,122 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import neuralnetwork.BinaryVector;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.engine.CompiledNetwork;
+import neuralnetwork.optimizer.MomentumOptimizer;
+import neuralnetwork.optimizer.Optimizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Inference and training steps of one sample, through the object API as
+ * the application calls them, and one mini-batch through the engine.
+ * <p>
+ * Samples rotate through a small pool so the branch predictor does not
+ * learn a single input. Training benchmarks keep updating the same
+ * network; with the small rates below the weights stay in a realistic
+ * range for the whole run.
+ *
+ * @author Николай
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class EngineBenchmark {
+
+    private static final int SAMPLES = 64;
+    private static final int BATCH = 32;
+    private static final double LEARNING_RATE = 0.01;
+
+    @Param({"2-2-1", "64-16-4", "784-128-10", "4096-32-10"})
+    public String topology;
+
+    private NeuralNetwork network;
+    private CompiledNetwork engine;
+    private Optimizer optimizer;
+
+    private double[][] inputs;
+    private double[][] targets;
+    private BinaryVector[] binaryInputs;
+    private double[][] batchInputs;
+    private double[][] batchTargets;
+    private double[] outputs;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        network = Networks.create(topology);
+        engine = network.compile();
+        optimizer = new MomentumOptimizer(LEARNING_RATE, 0.9, true);
+
+        Random random = new Random(Networks.SEED);
+        int nInputs = engine.getInputSize();
+        int nOutputs = engine.getOutputSize();
+        inputs = Networks.samples(SAMPLES, nInputs, random);
+        targets = Networks.targets(SAMPLES, nOutputs, random);
+        binaryInputs = Networks.binarySamples(SAMPLES, nInputs, random);
+        batchInputs = Networks.samples(BATCH, nInputs, random);
+        batchTargets = Networks.targets(BATCH, nOutputs, random);
+        outputs = new double[nOutputs];
+    }
+
+    private int nextSample() {
+        next = (next + 1) & (SAMPLES - 1);
+        return next;
+    }
+
+    @Benchmark
+    public double[] calculateOutputs() {
+        network.calculateOutputs(inputs[nextSample()], outputs);
+        return outputs;
+    }
+
+    /**
+     * The path of <code>NumberPaint</code>: bit-packed pixels into the
+     * compiled engine.
+     */
+    @Benchmark
+    public double[] calculateOutputsBinary() {
+        engine.calculateOutputs(binaryInputs[nextSample()], outputs, 0);
+        return outputs;
+    }
+
+    @Benchmark
+    public NeuralNetwork backPropagation() {
+        int s = nextSample();
+        network.backPropagation(inputs[s], targets[s], LEARNING_RATE);
+        return network;
+    }
+
+    @Benchmark
+    public NeuralNetwork backPropagationOptimizer() {
+        int s = nextSample();
+        network.backPropagation(inputs[s], targets[s], optimizer);
+        return network;
+    }
+
+    @Benchmark
+    public CompiledNetwork trainBatch() {
+        engine.trainBatch(batchInputs, batchTargets, LEARNING_RATE);
+        return engine;
+    }
+}
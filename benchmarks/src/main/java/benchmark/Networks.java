@@ -0,0 +1,96 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmark;
+
+import app.Program;
+import java.util.Random;
+import neuralnetwork.BinaryVector;
+import neuralnetwork.NeuralNetwork;
+
+/**
+ * Networks and samples shared by the benchmarks.
+ *
+ * @author Николай
+ */
+final class Networks {
+
+    /**
+     * Seed of every random network and sample, so runs compare.
+     */
+    static final long SEED = 42;
+
+    private Networks() {
+    }
+
+    /**
+     * Builds a network from <code>inputs-hidden-outputs</code>.
+     * <code>2-2-1</code> is {@link Program#net1()}, the others are fully
+     * connected sigmoid networks with one hidden layer, like the
+     * <code>4096-32-10</code> digit network of <code>NumberPaint</code>.
+     */
+    static NeuralNetwork create(String topology) {
+        int[] sizes = sizes(topology);
+        if (sizes[0] == 2 && sizes[1] == 2 && sizes[2] == 1) {
+            return Program.net1();
+        }
+        Random random = new Random(SEED);
+        NeuralNetwork network = new NeuralNetwork(sizes[0], sizes[2], sizes[1]);
+        double[] weights = network.compile().getWeights();
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextDouble() - 0.5;
+        }
+        return network;
+    }
+
+    static int[] sizes(String topology) {
+        String[] parts = topology.split("-");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Topology must be inputs-hidden-outputs: " + topology);
+        }
+        return new int[]{
+            Integer.parseInt(parts[0]),
+            Integer.parseInt(parts[1]),
+            Integer.parseInt(parts[2])
+        };
+    }
+
+    static double[][] samples(int count, int size, Random random) {
+        double[][] samples = new double[count][size];
+        for (double[] sample : samples) {
+            for (int i = 0; i < size; i++) {
+                sample[i] = random.nextDouble();
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * One-hot targets, as for digit classification.
+     */
+    static double[][] targets(int count, int size, Random random) {
+        double[][] targets = new double[count][size];
+        for (double[] target : targets) {
+            target[random.nextInt(size)] = 1.0;
+        }
+        return targets;
+    }
+
+    /**
+     * Binary samples with about a fifth of the bits set, like drawn digits.
+     */
+    static BinaryVector[] binarySamples(int count, int size, Random random) {
+        BinaryVector[] samples = new BinaryVector[count];
+        for (int s = 0; s < count; s++) {
+            samples[s] = new BinaryVector(size);
+            for (int i = 0; i < size; i++) {
+                if (random.nextInt(5) == 0) {
+                    samples[s].set(i);
+                }
+            }
+        }
+        return samples;
+    }
+}
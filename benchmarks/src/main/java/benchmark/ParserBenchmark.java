@@ -0,0 +1,119 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.engine.CompiledNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import parser.BinaryModelParser;
+import parser.CsvReader;
+import parser.CsvWriter;
+import parser.XMLParser;
+
+/**
+ * Saving and loading a model in every file format. The files live in a
+ * temporary directory created for the trial; the write benchmarks replace
+ * their own file on every call.
+ *
+ * @author Николай
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ParserBenchmark {
+
+    @Param({"2-2-1", "64-16-4", "784-128-10", "4096-32-10"})
+    public String topology;
+
+    private NeuralNetwork network;
+    private Path directory;
+    private String csv;
+    private String xml;
+    private String binary;
+    private String csvOut;
+    private String xmlOut;
+
+    @Setup
+    public void setUp() throws Exception {
+        network = Networks.create(topology);
+        directory = Files.createTempDirectory("nn-bench");
+        csv = directory.resolve("network.csv").toString();
+        xml = directory.resolve("network.xml").toString();
+        binary = directory.resolve("network" + BinaryModelParser.EXTENSION).toString();
+        csvOut = directory.resolve("out.csv").toString();
+        xmlOut = directory.resolve("out.xml").toString();
+
+        try (CsvWriter writer = new CsvWriter(csv)) {
+            writer.write(network);
+        }
+        XMLParser.write(network, xml);
+        BinaryModelParser.write(network, binary);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public NeuralNetwork csvRead() {
+        return new CsvReader().parseAsNetwork(csv);
+    }
+
+    /**
+     * Includes the fsync and rename that make the save atomic.
+     */
+    @Benchmark
+    public void csvWrite() throws IOException {
+        try (CsvWriter writer = new CsvWriter(csvOut)) {
+            writer.write(network);
+        }
+    }
+
+    @Benchmark
+    public NeuralNetwork xmlRead() {
+        return new XMLParser(xml).getNetwork();
+    }
+
+    @Benchmark
+    public void xmlWrite() {
+        new XMLParser(xmlOut).setNetwork(network);
+    }
+
+    @Benchmark
+    public NeuralNetwork binaryRead() throws IOException {
+        return BinaryModelParser.read(binary);
+    }
+
+    @Benchmark
+    public CompiledNetwork binaryReadCompiled() throws IOException {
+        return BinaryModelParser.readCompiled(binary);
+    }
+}
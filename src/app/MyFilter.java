@@ -6,6 +6,7 @@
 package app;
 
 import java.io.File;
+import parser.BinaryModelParser;
 
 /**
  *
@@ -17,11 +18,12 @@ public class MyFilter extends javax.swing.filechooser.FileFilter {
     public String getDescription() {
             // This description will be displayed in the dialog,
         // hard-coded = ugly, should be done via I18N
-        return "Нейронная сеть (*.cvs, *.xml)";
+        return "Нейронная сеть (*.cvs, *.xml, *.nnm)";
     }
 
     @Override
     public boolean accept(File f) {
-        return f.isDirectory() || f.getAbsolutePath().endsWith(".csv")|| f.getAbsolutePath().endsWith(".xml");
+        return f.isDirectory() || f.getAbsolutePath().endsWith(".csv")|| f.getAbsolutePath().endsWith(".xml")
+                || f.getAbsolutePath().endsWith(BinaryModelParser.EXTENSION);
     }
 }
@@ -13,14 +13,9 @@ import java.awt.Point;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.Reader;
-import java.util.LinkedList;
-import java.util.List;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,8 +25,14 @@ import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import neuralnetwork.NeuralNetwork;
 import neuralnetwork.ValuesList;
-import parser.CsvParserException;
+import neuralnetwork.engine.Trainer;
+import neuralnetwork.engine.TrainingListener;
+import neuralnetwork.engine.TrainingResult;
+import neuralnetwork.engine.TrainingStats;
+import neuralnetwork.optimizer.MomentumOptimizer;
 import parser.CsvReader;
+import parser.DatasetWriter;
+import parser.MappedDataset;
 
 /**
  *
@@ -319,60 +320,6 @@ public final class NumberPaint extends javax.swing.JFrame {
         } catch (NumberFormatException ex) {
         }
     }//GEN-LAST:event_jButtonTrainActionPerformed
-    private List<String> parseNextLine(Scanner scanner) {
-        try {
-            List<String> result = new LinkedList<String>();
-            if (scanner.isEof()) {
-                return null;
-            }
-            while (parseValue(scanner, result)) {
-                // empty
-            }
-            return result;
-        } catch (IOException e) {
-            throw new CsvParserException("Failed to parse CSV file", e);
-        }
-    }
-
-    private boolean parseValue(Scanner scanner, List<String> result) throws IOException {
-        StringBuilder builder = new StringBuilder();
-        int ch;
-        while ((ch = scanner.read()) != -1) {
-            if (ch == FIELD_SEP_COMMA) {
-                result.add(builder.toString());
-                return true;
-            } else if (ch == QUOTE_DOUBLE) {
-                parseQuotedValue(scanner, builder);
-            } else if (ch == 13) {
-                ch = scanner.read();
-                if (ch != 10) {
-                    scanner.unread(ch);
-                }
-                break;
-            } else if (ch == 10) {
-                break;
-            } else {
-                builder.append((char) ch);
-            }
-        }
-        // end of line (or file) reached
-        result.add(builder.toString());
-        return false;
-    }
-
-    private void parseQuotedValue(Scanner scanner, StringBuilder builder) throws IOException {
-        int ch;
-        while ((ch = scanner.read()) != -1) {
-            if (ch == QUOTE_DOUBLE) {
-                ch = scanner.read();
-                if (ch != QUOTE_DOUBLE) {
-                    scanner.unread(ch);
-                    break;
-                }
-            }
-            builder.append((char) ch);
-        }
-    }
 
     /**
      * @param args the command line arguments
@@ -424,41 +371,6 @@ public final class NumberPaint extends javax.swing.JFrame {
     private javax.swing.JTextField jTextField1;
     private app.MyPanel myPanel1;
     // End of variables declaration//GEN-END:variables
- public static final char FIELD_SEP_COMMA = ',';
-
-    public static final char QUOTE_DOUBLE = '"';
-
-    private static class Scanner {
-
-        private final Reader reader;
-        private int ch = -1;
-
-        public Scanner(Reader reader) {
-            this.reader = reader;
-        }
-
-        public int read() throws IOException {
-            if (ch == -1) {
-                return reader.read();
-            }
-
-            int result = ch;
-            ch = -1;
-            return result;
-        }
-
-        public void unread(int c) {
-            if (ch != -1) {
-                throw new IllegalStateException();
-            }
-            ch = c;
-        }
-
-        public boolean isEof() throws IOException {
-            ch = this.read();
-            return ch == -1;
-        }
-    }
 
     private class Train implements Runnable {
 
@@ -469,60 +381,76 @@ public final class NumberPaint extends javax.swing.JFrame {
 
         }
 
+        /**
+         * Trains for at most <code>iterator</code> epochs on the mapped
+         * binary copy of <code>train.csv</code>, converted again whenever the
+         * text file is newer, holding out a tenth of the samples and stopping
+         * once their loss stops improving. The progress bar follows the
+         * epochs.
+         */
         @Override
         public void run() {
             try {
-                jProgressBar1.setMaximum(2 * iterator);
-                jProgressBar1.setValue(1);
+                jProgressBar1.setIndeterminate(true);
                 jButtonTrain.setEnabled(false);
-                for (int l = 0; 0 < iterator; l++) {
-
-                    File file = new File("train.csv");
-                    BufferedReader r = null;
-                    r = new BufferedReader(new FileReader(file));
-                    Scanner scanner = new Scanner(r);
-
-                    List<String> startList = parseNextLine(scanner);
-
-                    int count = Integer.parseInt(startList.get(0));
-                    parseNextLine(scanner);
-                    int i = 0;
-
-                    for (int k = 0; k < count; k++) {
-
-                        jProgressBar1.setValue(l * k + k);
-                        List<String> list = parseNextLine(scanner);
-                        if (list == null || list.get(0).isEmpty()) {
-                            break;
-                        }
-                        ValuesList valuesListInput = new ValuesList();
-                        String s = list.get(0);
-                        for (int j = 0; j < s.length(); j++) {
-                            valuesListInput.add(Double.parseDouble(String.valueOf(s.charAt(j))));
-                        }
-
-                        parseNextLine(scanner);
-
-                        list = parseNextLine(scanner);
-                        ValuesList valuesListTarget = new ValuesList();
-                        for (String string : list) {
-                            valuesListTarget.add(Double.parseDouble(string));
-                        }
-                        neuralNetwork.backPropagation(valuesListInput, valuesListTarget, 0.9);
-                        parseNextLine(scanner);
-
-                    }
-                    scanner.reader.close();
-
+                File trainSet = new File("train.csv");
+                File dataset = new File("train.nnds");
+                if (!dataset.exists() || dataset.lastModified() < trainSet.lastModified()) {
+                    DatasetWriter.convert(trainSet.getPath(), dataset.getPath());
+                }
+                try (MappedDataset samples = new MappedDataset(dataset.getPath())) {
+                    Trainer trainer = new Trainer(neuralNetwork, new MomentumOptimizer(0.1, 0.9, true));
+                    trainer.setMaxEpochs(iterator);
+                    trainer.setValidationSplit(0.1);
+                    trainer.addListener(new Progress());
+                    jProgressBar1.setIndeterminate(false);
+                    jProgressBar1.setMaximum(iterator * Progress.STEPS);
+                    jProgressBar1.setValue(0);
+                    TrainingResult result = trainer.train(samples);
+                    Logger.getLogger(NumberPaint.class.getName()).log(Level.INFO, result.toString());
                 }
             } catch (FileNotFoundException ex) {
                 Logger.getLogger(NumberPaint.class.getName()).log(Level.SEVERE, null, ex);
             } catch (IOException ex) {
                 Logger.getLogger(NumberPaint.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
+                jProgressBar1.setIndeterminate(false);
                 jButtonTrain.setEnabled(true);
                 JOptionPane.showMessageDialog(panel, "Обучение закончено");
             }
         }
     }
+
+    /**
+     * Moves the progress bar along the epochs and logs the statistics of
+     * each epoch.
+     */
+    private class Progress implements TrainingListener {
+
+        /**
+         * Progress bar steps per epoch.
+         */
+        private static final int STEPS = 100;
+
+        @Override
+        public void batchFinished(TrainingStats stats) {
+            show(stats.getEpoch() - 1, (double) stats.getEpochSamples() / stats.getEpochSize());
+        }
+
+        @Override
+        public void epochFinished(TrainingStats stats) {
+            show(stats.getEpoch(), 0.0);
+            Logger.getLogger(NumberPaint.class.getName()).log(Level.INFO, stats.toString());
+        }
+
+        private void show(int epochs, double fraction) {
+            final int value = (int) ((epochs + fraction) * STEPS);
+            java.awt.EventQueue.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    jProgressBar1.setValue(value);
+                }
+            });
+        }
+    }
 }
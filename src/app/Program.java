@@ -10,7 +10,11 @@ import neuralnetwork.NeuralNetwork;
 import neuralnetwork.ValuesList;
 import neuralnetwork.activation.ActivationFunction;
 import neuralnetwork.activation.SigmoidActivationFunction;
+import neuralnetwork.engine.Trainer;
+import neuralnetwork.engine.TrainingResult;
 import neuralnetwork.neuron.Neuron;
+import neuralnetwork.optimizer.MomentumOptimizer;
+import neuralnetwork.optimizer.Optimizer;
 import parser.XMLParser;
 
 /**
@@ -25,13 +29,13 @@ public class Program {
     public static void main(String[] args) {
         for (int i = 0; i < 10; i++)
 		{
-			testBool(net1(), Integer.MAX_VALUE/40000, 0.9);
+			testBool(net1(), 4000, newOptimizer());
 		}
 		
 		System.out.println(net1() + "\n1\n");
                 XMLParser xmlp = new XMLParser("");
                 NeuralNetwork net =net1();
-                testBool(net, Integer.MAX_VALUE/40000, 0.9);
+                testBool(net, 4000, newOptimizer());
                 xmlp.setNetwork(net);
 		System.out.println(net3() + "\n3\n");
                 
@@ -131,6 +135,41 @@ public class Program {
 	    return result;
 	}
 	
+	/**
+	 * Mean squared error at which {@link #testBool} stops training.
+	 */
+	public static final double TARGET_LOSS = 1e-3;
+	
+	/**
+	 * Nesterov momentum learns the test function in one or two thousand
+	 * samples, where the plain 0.9 rate needed tens of thousands.
+	 */
+	public static Optimizer newOptimizer()
+	{
+		return new MomentumOptimizer(0.5, 0.9, true);
+	}
+	
+	/**
+	 * Trains on the four input combinations for at most
+	 * <code>nTrains</code> samples, stopping once the mean squared error
+	 * drops below {@link #TARGET_LOSS} or stops improving.
+	 */
+	public static TrainingResult testBool(NeuralNetwork net, int nTrains, Optimizer optimizer)
+	{
+		double[][] inputs = new double[4][];
+		double[][] targets = new double[4][];
+		for (int i = 0; i < inputs.length; i++)
+		{
+			inputs[i] = new double[] { i & 1, i >> 1 };
+			targets[i] = new double[] { testfunc(inputs[i][0], inputs[i][1]) };
+		}
+		
+		Trainer trainer = new Trainer(net, optimizer);
+		trainer.setMaxEpochs(Math.max(1, nTrains / inputs.length));
+		trainer.setTarget(TARGET_LOSS);
+		return trainer.train(inputs, targets);
+	}
+	
 	public static void testBool(NeuralNetwork net, int nTrains, double learningRate)
 	{		
 		for (int i = 0; i < nTrains; i++)
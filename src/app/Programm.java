@@ -317,11 +317,19 @@ public class Programm extends javax.swing.JFrame {
         int returnVal = jFileChooser.showOpenDialog(this);
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             String path = jFileChooser.getSelectedFile().getAbsolutePath();
+            NeuralNetwork opened = null;
             if (path.endsWith(".xml")) {
-                throw new UnsupportedOperationException("Открытие xml");
+                XMLParser xp = new XMLParser(path);
+                opened = xp.getNetwork();
             } else if (path.endsWith(".csv")) {
                 CsvParser cp = new CsvParser(path);
-                neuralNetwork = cp.getNetwork();
+                opened = cp.getNetwork();
+            } else if (path.endsWith(BinaryModelParser.EXTENSION)) {
+                BinaryModelParser mp = new BinaryModelParser(path);
+                opened = mp.getNetwork();
+            }
+            if (opened != null) {
+                neuralNetwork = opened;
                 jButtonCreateNeuron.setEnabled(false);
                 jPanelNewNetwork.setVisible(true);
                 jPanelTrainNetwork.setVisible(true);
@@ -346,6 +354,9 @@ public class Programm extends javax.swing.JFrame {
                 CsvParser cp = new CsvParser(path);
                 cp.setNetwork(neuralNetwork);
                 System.out.println("");
+            } else if (path.endsWith(BinaryModelParser.EXTENSION)) {
+                BinaryModelParser mp = new BinaryModelParser(path);
+                mp.setNetwork(neuralNetwork);
             }
 
         }
@@ -378,7 +389,7 @@ public class Programm extends javax.swing.JFrame {
             jLabelMessage.setText(" ");
             int count = Integer.parseInt(jTextFieldTrainCount.getText());
             if (count > 0) {
-                Program.testBool(neuralNetwork, count, 0.9);
+                Program.testBool(neuralNetwork, count, Program.newOptimizer());
             }
             jLabelMessage.setText("Обучение закончено");
         } catch (NumberFormatException ex) {
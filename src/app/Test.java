@@ -7,10 +7,11 @@ public class Test {
 
     public static void main(String[] args) throws Exception {
         StringBuilder out = new StringBuilder();
-        CsvWriter writer = new CsvWriter("network.csv");
         NeuralNetwork net = new NeuralNetwork(2,1,1,3);
-                Program.testBool(net, Integer.MAX_VALUE/40000, 0.9);
-        writer.write(net);
+                Program.testBool(net, 4000, Program.newOptimizer());
+        try (CsvWriter writer = new CsvWriter("network.csv")) {
+            writer.write(net);
+        }
        
         System.out.println(out);
         System.out.println();
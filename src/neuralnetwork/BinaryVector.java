@@ -0,0 +1,128 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork;
+
+import java.util.Arrays;
+
+/**
+ * Input vector of 0/1 values packed 64 to a <code>long</code>. A 4096-pixel
+ * <code>NumberPaint</code> bitmap takes 64 words instead of 4096 doubles, and
+ * the compiled engine sums the first-layer weights of the set bits without
+ * any multiplication.
+ *
+ * @author Николай
+ */
+public class BinaryVector {
+
+    private final int size;
+    private final long[] words;
+
+    public BinaryVector(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Vector of the given '0'/'1' characters, e.g. one line of
+     * <code>train.csv</code>.
+     */
+    public static BinaryVector parse(CharSequence bits) {
+        BinaryVector vector = new BinaryVector(bits.length());
+        vector.set(bits, 0, bits.length());
+        return vector;
+    }
+
+    /**
+     * Replaces the content with <code>length</code> '0'/'1' characters
+     * starting at <code>offset</code>.
+     */
+    public void set(CharSequence bits, int offset, int length) throws ArrayIndexOutOfBoundsException {
+        if (length > size) {
+            throw new ArrayIndexOutOfBoundsException("Vector size < than number of values. ");
+        }
+        clear();
+        for (int i = 0; i < length; i++) {
+            char c = bits.charAt(offset + i);
+            if (c == '1') {
+                words[i >>> 6] |= 1L << i;
+            } else if (c != '0') {
+                throw new NumberFormatException("Not a binary digit: '" + c + "'");
+            }
+        }
+    }
+
+    public void set(int index) {
+        checkIndex(index);
+        words[index >>> 6] |= 1L << index;
+    }
+
+    public void clear(int index) {
+        checkIndex(index);
+        words[index >>> 6] &= ~(1L << index);
+    }
+
+    public boolean get(int index) {
+        checkIndex(index);
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0L);
+    }
+
+    private void checkIndex(int index) throws ArrayIndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+    /**
+     * Dimension of the vector.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of set bits.
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long w : words) {
+            count += Long.bitCount(w);
+        }
+        return count;
+    }
+
+    /**
+     * Backing words; bit <code>i</code> is bit <code>i % 64</code> of word
+     * <code>i / 64</code>.
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    public double[] toArray() {
+        double[] dense = new double[size];
+        for (int w = 0; w < words.length; w++) {
+            long bits = words[w];
+            while (bits != 0) {
+                dense[(w << 6) + Long.numberOfTrailingZeros(bits)] = 1.0;
+                bits &= bits - 1;
+            }
+        }
+        return dense;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            s.append(get(i) ? '1' : '0');
+        }
+        return s.toString();
+    }
+}
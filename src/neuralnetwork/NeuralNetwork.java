@@ -8,12 +8,16 @@ package neuralnetwork;
 import neuralnetwork.neuron.Synapse;
 import neuralnetwork.neuron.NeuronsList;
 import neuralnetwork.neuron.Neuron;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
 import neuralnetwork.activation.ActivationFunction;
 import neuralnetwork.activation.SigmoidActivationFunction;
+import neuralnetwork.engine.CompiledNetwork;
+import neuralnetwork.engine.ExecutionPlan;
+import neuralnetwork.engine.Precision;
+import neuralnetwork.optimizer.Optimizer;
 
 /**
  *
@@ -24,9 +28,23 @@ public class NeuralNetwork {
     public NeuronsList inputNeurons;
     public NeuronsList hiddenNeurons;
     public NeuronsList outputNeurons;
+    /**
+     * State of the last pass through the object graph. Only networks that
+     * cannot be compiled and the ValuesList training path use these maps;
+     * they are not safe to share between threads.
+     */
     public HashMap<Neuron, Double> neuronOutputs;
     public HashMap<Neuron, Double> neuronErrors;
 
+    private volatile CompiledNetwork engine;
+    private boolean layered = true;
+    private ExecutionPlan plan;
+    private double[] planValues;
+    private double[] planErrors;
+    private double[] planWeights;
+    private double[] planGradients;
+    private Precision precision = Precision.DOUBLE;
+
     public NeuralNetwork() {
         inputNeurons = new NeuronsList();
         hiddenNeurons = new NeuronsList();
@@ -121,14 +139,106 @@ public class NeuralNetwork {
 
     public void addInputNeuron(Neuron n) {
         inputNeurons.add(n);
+        invalidate();
     }
 
     public void addHiddenNeuron(Neuron n) {
         hiddenNeurons.add(n);
+        invalidate();
     }
 
     public void addOutputNeuron(Neuron n) {
         outputNeurons.add(n);
+        invalidate();
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Sets the storage precision of the model and rounds every weight to it.
+     * Training still runs in double; the precision is applied again when the
+     * network is saved, and {@link neuralnetwork.engine.FloatNetwork} gives
+     * the float or bfloat16 inference copy.
+     */
+    public void setPrecision(Precision precision) {
+        this.precision = precision;
+        if (precision == Precision.DOUBLE) {
+            return;
+        }
+        for (Neuron neuron : hiddenNeurons) {
+            roundWeights(neuron);
+        }
+        for (Neuron neuron : outputNeurons) {
+            roundWeights(neuron);
+        }
+    }
+
+    private void roundWeights(Neuron neuron) {
+        for (Synapse synapse : neuron.getInputsSynapse()) {
+            synapse.setWeight(precision.round(synapse.getWeight()));
+        }
+    }
+
+    /**
+     * Drops the compiled engine and execution plan, so the next call builds
+     * them again from the object graph. The add methods do this themselves;
+     * call it after connecting neurons with {@link Neuron#connect} or editing
+     * the neuron lists directly once the network has been used, otherwise
+     * the cached engine keeps ignoring the change.
+     */
+    public synchronized void invalidate() {
+        engine = null;
+        layered = true;
+        plan = null;
+    }
+
+    /**
+     * Topological order of the object graph, used for networks that cannot
+     * be compiled. Built once per topology.
+     */
+    public synchronized ExecutionPlan getExecutionPlan() {
+        if (plan == null) {
+            plan = new ExecutionPlan(this);
+            planValues = new double[plan.getNeuronCount()];
+            planErrors = new double[plan.getNeuronCount()];
+            planWeights = new double[plan.getWeightCount()];
+            planGradients = new double[plan.getWeightCount()];
+        }
+        return plan;
+    }
+
+    /**
+     * Compiles the network into dense weight matrices. The synapses stay
+     * bound to the compiled weights, so both APIs can be used on the same
+     * model as long as the topology does not change. The engine is cached,
+     * repeated calls return the same instance until {@link #invalidate()}.
+     *
+     * @return engine for fast forward and backward passes
+     */
+    public synchronized CompiledNetwork compile() {
+        if (engine == null) {
+            engine = new CompiledNetwork(this);
+        }
+        return engine;
+    }
+
+    /**
+     * Cached engine, or <code>null</code> when the network is not layered
+     * and has to be evaluated through the object graph. Unlike
+     * {@link #compile()}, a network found not to be layered is not tried
+     * again until the topology changes.
+     */
+    public CompiledNetwork getEngineOrNull() {
+        if (engine == null && layered) {
+            try {
+                compile();
+            } catch (IllegalArgumentException ex) {
+                layered = false;
+            }
+        }
+        return engine;
     }
 
     public void setInputs(ValuesList values) throws ArrayIndexOutOfBoundsException {
@@ -177,46 +287,84 @@ public class NeuralNetwork {
         }
     }
 
+    /**
+     * Calculates the outputs for the given inputs. Layered networks are
+     * evaluated by the compiled engine with per-thread state, so this method
+     * can be called from several threads at once. The engine is built on the
+     * first call; see {@link #invalidate()} for later topology changes.
+     */
     public ValuesList calculateOutputs(ValuesList inputs) {
-        neuronOutputs.clear();
+        CompiledNetwork e = getEngineOrNull();
+        if (e == null) {
+            return calculateGraphOutputs(inputs);
+        }
 
-        setInputs(inputs);
+        double[] in = new double[inputs.size()];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = inputs.get(i).doubleValue();
+        }
+        double[] out = new double[e.getOutputSize()];
+        e.calculateOutputs(in, 0, in.length, out, 0);
 
         ValuesList values = new ValuesList();
-        for (int i = 0; i < outputNeurons.size(); i++) {
-            Neuron outNeuron = outputNeurons.get(i);
-            values.add(calculateOutput(outNeuron));
+        for (double v : out) {
+            values.add(v);
         }
-
         return values;
     }
 
-    private double calculateOutput(Neuron neuron) {
-        double output = 0.0;
+    private ValuesList calculateGraphOutputs(ValuesList inputs) {
+        neuronOutputs.clear();
 
-        // Calculate the weighted sum of the outputs of the upstream neurons
-        for (Synapse syn : neuron.getInputsSynapse()) {
+        ExecutionPlan p = getExecutionPlan();
+        double[] in = new double[inputs.size()];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = inputs.get(i).doubleValue();
+        }
+        p.forward(in, 0, in.length, planValues);
 
-            Neuron otherNeuron = syn.getA();
-            double otherOutput = 0.0;
+        for (int k = 0; k < p.getNeuronCount(); k++) {
+            neuronOutputs.put(p.getNeuron(k), planValues[k]);
+        }
 
-            // Avoid computation of previously calculated neurons
-            if (neuronOutputs.containsKey(otherNeuron)) {
-                otherOutput = neuronOutputs.get(otherNeuron).doubleValue();
-            } else {
-                otherOutput = calculateOutput(otherNeuron);
-            }
+        ValuesList values = new ValuesList();
+        for (int o = 0; o < p.getOutputCount(); o++) {
+            values.add(planValues[p.getOutputIndex(o)]);
+        }
+
+        return values;
+    }
 
-            output += otherOutput * syn.getWeight();
+    /**
+     * Calculates the outputs for <code>length</code> input values starting at
+     * <code>inputs[offset]</code> and writes them to <code>outputs</code>
+     * starting at <code>outputsOffset</code>. Layered networks are evaluated
+     * by the compiled engine and do not allocate. The engine is built on the
+     * first call; see {@link #invalidate()} for later topology changes.
+     */
+    public void calculateOutputs(double[] inputs, int offset, int length, double[] outputs, int outputsOffset) throws ArrayIndexOutOfBoundsException {
+        CompiledNetwork e = getEngineOrNull();
+        if (e != null) {
+            e.calculateOutputs(inputs, offset, length, outputs, outputsOffset);
+            return;
         }
 
-        // Apply the activation function 
-        output = neuron.getActivationFunction().calculate(output);
-        neuronOutputs.put(neuron, output);
+        ExecutionPlan p = getExecutionPlan();
+        p.forward(inputs, offset, length, planValues);
+        for (int o = 0; o < p.getOutputCount(); o++) {
+            outputs[outputsOffset + o] = planValues[p.getOutputIndex(o)];
+        }
+    }
 
-        return output;
+    public void calculateOutputs(double[] inputs, double[] outputs) throws ArrayIndexOutOfBoundsException {
+        calculateOutputs(inputs, 0, inputs.length, outputs, 0);
     }
 
+    /**
+     * One training step through the object graph. The execution plan is
+     * built on the first call; see {@link #invalidate()} for later topology
+     * changes.
+     */
     public void backPropagation(ValuesList inputs, ValuesList targets, double learningRate) throws ArrayIndexOutOfBoundsException {
         if (inputs.size() > inputNeurons.size()) {
             throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of inputs values. ");
@@ -230,101 +378,77 @@ public class NeuralNetwork {
         neuronErrors.clear();
 
         // Forward Pass
-        calculateOutputs(inputs);
-
-        // Useful Iterators
-        Iterator<Neuron> inIt;
-        Iterator<Neuron> outIt;
-        Iterator<Double> targetIt;
-        Iterator<Synapse> synIt;
-
-        // Set the errors on the Output neurons
-        outIt = outputNeurons.iterator();
-        targetIt = targets.iterator();
-
-        while (outIt.hasNext() && targetIt.hasNext()) {
-            Neuron outNeuron = outIt.next();
-            double target = targetIt.next().doubleValue();
-
-            double error = bpCalculateOutputError(outNeuron, target);
-            neuronErrors.put(outNeuron, error);
+        calculateGraphOutputs(inputs);
 
-            bpUpdateWeights(outNeuron, error, learningRate); //  Now or at the end?
+        // Reverse pass: the errors of all neurons, with the current weights
+        ExecutionPlan p = getExecutionPlan();
+        double[] t = new double[targets.size()];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = targets.get(i).doubleValue();
         }
-
-        for (Neuron inNeuron : inputNeurons) {
-
-            for (Synapse syn : inNeuron.getOutputsSynapse()) {
-
-                Neuron nextNeuron = syn.getB();
-                double error = bpCalculateHiddenError(nextNeuron);
-                neuronErrors.put(nextNeuron, error);
-
-                bpUpdateWeights(nextNeuron, error, learningRate); //  Now or at the end?
+        p.backward(planValues, planErrors, t, 0, t.length);
+        for (int k = 0; k < p.getNeuronCount(); k++) {
+            if (!p.isInput(k)) {
+                neuronErrors.put(p.getNeuron(k), planErrors[k]);
             }
         }
 
-        /*
-         // Update Weights
-         outIt = outputNeurons.iterator();
-		
-         while (outIt.hasNext() && targetIt.hasNext())
-         {
-         Neuron outNeuron = outIt.next();
-         bpUpdateWeightsRecursive(outNeuron, learningRate);
-         }*/
+        // Update Weights, each one once
+        p.updateWeights(planValues, planErrors, learningRate);
     }
 
-    private void bpUpdateWeights(Neuron neuron, double error, double learningRate) {
-        for (Synapse syn : neuron.getInputsSynapse()) {
-            Neuron otherNeuron = syn.getA();
-            double weight = syn.getWeight();
-            weight += learningRate * error * neuronOutputs.get(otherNeuron).doubleValue();
-            syn.setWeight(weight);
+    /**
+     * Primitive counterpart of
+     * {@link #backPropagation(ValuesList, ValuesList, double)}. Layered
+     * networks are trained by the compiled engine and do not allocate. The
+     * engine is built on the first call; see {@link #invalidate()} for later
+     * topology changes.
+     */
+    public void backPropagation(double[] inputs, int offset, int length,
+            double[] targets, int targetsOffset, int targetsLength, double learningRate) throws ArrayIndexOutOfBoundsException {
+        CompiledNetwork e = getEngineOrNull();
+        if (e != null) {
+            e.backPropagation(inputs, offset, length, targets, targetsOffset, targetsLength, learningRate);
+            return;
         }
-    }
 
-    private void bpUpdateWeightsRecursive(Neuron neuron, double learningRate) {
-        double error = neuronErrors.get(neuron);
-        for (Synapse syn : neuron.getInputsSynapse()) {
-            Neuron otherNeuron = syn.getA();
-            double weight = syn.getWeight();
-            weight += learningRate * error * neuronOutputs.get(otherNeuron).doubleValue();
-            syn.setWeight(weight);
-            bpUpdateWeightsRecursive(otherNeuron, learningRate);
-        }
+        ExecutionPlan p = getExecutionPlan();
+        p.forward(inputs, offset, length, planValues);
+        p.backward(planValues, planErrors, targets, targetsOffset, targetsLength);
+        p.updateWeights(planValues, planErrors, learningRate);
     }
 
-    private double bpCalculateOutputError(Neuron neuron, double target) {
-        if (neuronErrors.containsKey(neuron)) {
-            return neuronErrors.get(neuron).doubleValue();
-        }
-
-        double output = neuronOutputs.get(neuron).doubleValue();
-        double deriv = neuron.getActivationFunction().derive(output);
-        double error = deriv * (target - output);
-
-        neuronErrors.put(neuron, new Double(error));
-
-        return error;
+    public void backPropagation(double[] inputs, double[] targets, double learningRate) throws ArrayIndexOutOfBoundsException {
+        backPropagation(inputs, 0, inputs.length, targets, 0, targets.length, learningRate);
     }
 
-    private double bpCalculateHiddenError(Neuron neuron) {
-        if (neuronErrors.containsKey(neuron)) {
-            return neuronErrors.get(neuron).doubleValue();
+    /**
+     * One training step with the update rule of <code>optimizer</code>.
+     * Its state is laid out like {@link CompiledNetwork#getWeights()} for a
+     * layered network, like {@link ExecutionPlan#getWeights} otherwise, so
+     * one optimizer serves one network and topology. The engine is built on
+     * the first call; see {@link #invalidate()} for later topology changes.
+     */
+    public void backPropagation(double[] inputs, int offset, int length,
+            double[] targets, int targetsOffset, int targetsLength, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        CompiledNetwork e = getEngineOrNull();
+        if (e != null) {
+            e.backPropagation(e.getContext(), inputs, offset, length, targets, targetsOffset, targetsLength, optimizer);
+            return;
         }
 
-        double output = neuronOutputs.get(neuron).doubleValue();
-        double deriv = neuron.getActivationFunction().derive(output);
-        double error = 0;
-        for (Synapse syn : neuron.getOutputsSynapse()) {
-            error += syn.getWeight() * bpCalculateHiddenError(syn.getB());
-        }
-        error *= deriv;
-
-        neuronErrors.put(neuron, new Double(error));
+        ExecutionPlan p = getExecutionPlan();
+        p.forward(inputs, offset, length, planValues);
+        p.backward(planValues, planErrors, targets, targetsOffset, targetsLength);
+        Arrays.fill(planGradients, 0.0);
+        p.accumulateGradients(planValues, planErrors, planGradients);
+        p.getWeights(planWeights);
+        optimizer.step(planWeights, planGradients);
+        p.setWeights(planWeights);
+    }
 
-        return error;
+    public void backPropagation(double[] inputs, double[] targets, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        backPropagation(inputs, 0, inputs.length, targets, 0, targets.length, optimizer);
     }
 
 }
@@ -0,0 +1,147 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork;
+
+import java.util.Arrays;
+
+/**
+ * Input vector that keeps only its non-zero entries as index/value pairs.
+ * Meant for inputs like the <code>NumberPaint</code> bitmaps, where most
+ * pixels are 0: the compiled engine skips the missing entries in both the
+ * forward pass and the weight update.
+ * <p>
+ * The vector is reusable: {@link #clear()} and {@link #add(int, double)} do
+ * not allocate once the capacity is reached.
+ *
+ * @author Николай
+ */
+public class SparseVector {
+
+    private final int size;
+    private int[] indices;
+    private double[] values;
+    private int count;
+
+    public SparseVector(int size) {
+        this(size, 16);
+    }
+
+    public SparseVector(int size, int capacity) {
+        this.size = size;
+        this.indices = new int[Math.max(capacity, 1)];
+        this.values = new double[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Sparse copy of <code>length</code> dense values starting at
+     * <code>offset</code>.
+     */
+    public static SparseVector of(double[] dense, int offset, int length) {
+        SparseVector vector = new SparseVector(length);
+        vector.set(dense, offset, length);
+        return vector;
+    }
+
+    public static SparseVector of(double[] dense) {
+        return of(dense, 0, dense.length);
+    }
+
+    /**
+     * Replaces the content with the non-zero entries of the dense values.
+     */
+    public void set(double[] dense, int offset, int length) throws ArrayIndexOutOfBoundsException {
+        if (length > size) {
+            throw new ArrayIndexOutOfBoundsException("Vector size < than number of values. ");
+        }
+        clear();
+        for (int i = 0; i < length; i++) {
+            double v = dense[offset + i];
+            if (v != 0.0) {
+                add(i, v);
+            }
+        }
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Appends an entry. Zero values are not stored; an index must not be
+     * added twice.
+     */
+    public void add(int index, double value) throws ArrayIndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        if (value == 0.0) {
+            return;
+        }
+        if (count == indices.length) {
+            indices = Arrays.copyOf(indices, count * 2);
+            values = Arrays.copyOf(values, count * 2);
+        }
+        indices[count] = index;
+        values[count] = value;
+        count++;
+    }
+
+    /**
+     * Dimension of the vector.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Number of stored (non-zero) entries.
+     */
+    public int count() {
+        return count;
+    }
+
+    public int index(int k) {
+        return indices[k];
+    }
+
+    public double value(int k) {
+        return values[k];
+    }
+
+    /**
+     * Backing index array, valid up to {@link #count()}.
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * Backing value array, valid up to {@link #count()}.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    public double[] toArray() {
+        double[] dense = new double[size];
+        for (int k = 0; k < count; k++) {
+            dense[indices[k]] = values[k];
+        }
+        return dense;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("[");
+        for (int k = 0; k < count; k++) {
+            if (k > 0) {
+                s.append(", ");
+            }
+            s.append(indices[k]).append('=').append(values[k]);
+        }
+        return s.append("] of ").append(size).toString();
+    }
+}
@@ -7,6 +7,9 @@
 package neuralnetwork.activation;
 
 /**
+ * Neuron activation function. Besides the per-value methods every function
+ * has bulk versions over an array range, which the compiled engine calls once
+ * per layer instead of once per neuron.
  *
  * @author Николай
  */
@@ -15,4 +18,15 @@ public interface ActivationFunction {
 	public double calculate(double x);
 	
 	public double derive(double f);
+
+	/**
+	 * Replaces <code>values[from..to)</code> by their activations, in place.
+	 */
+	public void calculate(double[] values, int from, int to);
+
+	/**
+	 * Multiplies <code>errors[from..to)</code> by the derivative at the
+	 * matching <code>outputs[from..to)</code>, in place.
+	 */
+	public void derive(double[] outputs, double[] errors, int from, int to);
 }
@@ -0,0 +1,68 @@
+package neuralnetwork.activation;
+
+/**
+ * Sigmoid read from a table with linear interpolation, without any call to
+ * <code>Math.exp</code>.
+ * <p>
+ * The table covers <code>[-16, 16]</code> in steps of 1/64; outside of it the
+ * end values are returned. Maximum absolute error against
+ * {@link SigmoidActivationFunction} is below <code>3e-6</code> over the
+ * whole real line (interpolation error <code>h^2/8 * max|f''|</code>, and
+ * <code>sigmoid(-16) &lt; 1.2e-7</code> past the ends). The derivative is
+ * computed exactly from the output, as for the sigmoid.
+ */
+public class FastSigmoidActivationFunction implements ActivationFunction {
+
+	/**
+	 * Maximum absolute error of {@link #calculate(double)}.
+	 */
+	public static final double MAX_ERROR = 3e-6;
+
+	private static final double RANGE = 16.0;
+	private static final int STEPS = 64;
+	private static final double[] TABLE = new double[(int) (2 * RANGE * STEPS) + 1];
+
+	static {
+		for (int i = 0; i < TABLE.length; i++) {
+			TABLE[i] = 1 / (1 + Math.exp(-((double) i / STEPS - RANGE)));
+		}
+	}
+
+        @Override
+	public double calculate(double x)
+	{
+		if (x <= -RANGE) {
+			return TABLE[0];
+		}
+		if (x >= RANGE) {
+			return TABLE[TABLE.length - 1];
+		}
+		double p = (x + RANGE) * STEPS;
+		int i = (int) p;
+		double a = TABLE[i];
+		return a + (TABLE[i + 1] - a) * (p - i);
+	}
+
+        @Override
+	public double derive(double f)
+	{
+		return f * (1 - f);
+	}
+
+        @Override
+	public void calculate(double[] values, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			values[i] = calculate(values[i]);
+		}
+	}
+
+        @Override
+	public void derive(double[] outputs, double[] errors, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			double f = outputs[i];
+			errors[i] *= f * (1 - f);
+		}
+	}
+}
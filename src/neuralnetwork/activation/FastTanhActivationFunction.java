@@ -0,0 +1,58 @@
+package neuralnetwork.activation;
+
+/**
+ * Hyperbolic tangent by the (7, 6) Padé approximant of its continued
+ * fraction, clamped to &plusmn;1 past &plusmn;4.97: one division and a few
+ * multiplications per value.
+ * <p>
+ * Maximum absolute error against <code>Math.tanh</code> is below
+ * <code>1e-4</code> over the whole real line, the largest error being at the
+ * clamping point. The derivative is computed exactly from the output, as for
+ * {@link TanhActivationFunction}.
+ */
+public class FastTanhActivationFunction implements ActivationFunction {
+
+	/**
+	 * Maximum absolute error of {@link #calculate(double)}.
+	 */
+	public static final double MAX_ERROR = 1e-4;
+
+	private static final double CLAMP = 4.97;
+
+        @Override
+	public double calculate(double x)
+	{
+		if (x >= CLAMP) {
+			return 1.0;
+		}
+		if (x <= -CLAMP) {
+			return -1.0;
+		}
+		double x2 = x * x;
+		return x * (135135 + x2 * (17325 + x2 * (378 + x2)))
+				/ (135135 + x2 * (62370 + x2 * (3150 + x2 * 28)));
+	}
+
+        @Override
+	public double derive(double f)
+	{
+		return 1 - f * f;
+	}
+
+        @Override
+	public void calculate(double[] values, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			values[i] = calculate(values[i]);
+		}
+	}
+
+        @Override
+	public void derive(double[] outputs, double[] errors, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			double f = outputs[i];
+			errors[i] *= 1 - f * f;
+		}
+	}
+}
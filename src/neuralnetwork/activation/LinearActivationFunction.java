@@ -13,4 +13,14 @@ public class LinearActivationFunction implements ActivationFunction {
 	{
 		return 1.0;
 	}
+
+        @Override
+	public void calculate(double[] values, int from, int to)
+	{
+	}
+
+        @Override
+	public void derive(double[] outputs, double[] errors, int from, int to)
+	{
+	}
 }
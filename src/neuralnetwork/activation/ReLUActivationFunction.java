@@ -0,0 +1,39 @@
+package neuralnetwork.activation;
+
+/**
+ * Rectified linear unit, <code>max(0, x)</code>.
+ */
+public class ReLUActivationFunction implements ActivationFunction {
+
+        @Override
+	public double calculate(double x)
+	{
+		return x > 0 ? x : 0.0;
+	}
+
+        @Override
+	public double derive(double f)
+	{
+		return f > 0 ? 1.0 : 0.0;
+	}
+
+        @Override
+	public void calculate(double[] values, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			if (values[i] < 0) {
+				values[i] = 0.0;
+			}
+		}
+	}
+
+        @Override
+	public void derive(double[] outputs, double[] errors, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			if (outputs[i] <= 0) {
+				errors[i] = 0.0;
+			}
+		}
+	}
+}
@@ -5,7 +5,7 @@ public class SigmoidActivationFunction implements ActivationFunction {
         @Override
 	public double calculate(double x) 
 	{
-			return 1 / (1 + Math.pow(Math.E, -x));
+			return 1 / (1 + Math.exp(-x));
 	}
 
         @Override
@@ -14,4 +14,21 @@ public class SigmoidActivationFunction implements ActivationFunction {
 		return f * (1 - f);
 	}
 
+        @Override
+	public void calculate(double[] values, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			values[i] = 1 / (1 + Math.exp(-values[i]));
+		}
+	}
+
+        @Override
+	public void derive(double[] outputs, double[] errors, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			double f = outputs[i];
+			errors[i] *= f * (1 - f);
+		}
+	}
+
 }
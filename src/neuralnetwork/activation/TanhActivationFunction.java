@@ -0,0 +1,36 @@
+package neuralnetwork.activation;
+
+/**
+ * Hyperbolic tangent, output in <code>(-1, 1)</code>.
+ */
+public class TanhActivationFunction implements ActivationFunction {
+
+        @Override
+	public double calculate(double x)
+	{
+		return Math.tanh(x);
+	}
+
+        @Override
+	public double derive(double f)
+	{
+		return 1 - f * f;
+	}
+
+        @Override
+	public void calculate(double[] values, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			values[i] = Math.tanh(values[i]);
+		}
+	}
+
+        @Override
+	public void derive(double[] outputs, double[] errors, int from, int to)
+	{
+		for (int i = from; i < to; i++) {
+			double f = outputs[i];
+			errors[i] *= 1 - f * f;
+		}
+	}
+}
@@ -0,0 +1,841 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import neuralnetwork.BinaryVector;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.SparseVector;
+import neuralnetwork.activation.ActivationFunction;
+import neuralnetwork.monitor.InferenceEvent;
+import neuralnetwork.monitor.ModelMonitor;
+import neuralnetwork.monitor.TrainingBatchEvent;
+import neuralnetwork.neuron.Neuron;
+import neuralnetwork.neuron.NeuronsList;
+import neuralnetwork.neuron.Synapse;
+import neuralnetwork.optimizer.Optimizer;
+
+/**
+ * Dense-layer execution engine for a layered {@link NeuralNetwork}.
+ * <p>
+ * The network is split into layers (inputs, hidden layers, outputs) and the
+ * weights of every layer are stored row by row in one flat
+ * <code>double[]</code>: the weight from neuron <code>i</code> of layer
+ * <code>l - 1</code> to neuron <code>o</code> of layer <code>l</code> is
+ * <code>weights[getWeightOffset(l) + o * getLayerSize(l - 1) + i]</code>.
+ * The synapses of the source network are bound to that array, so training
+ * through the engine is immediately visible through the object API and vice
+ * versa.
+ * <p>
+ * Every layer must be fully connected to the previous one and all neurons of
+ * a layer must use the same kind of activation function.
+ * <p>
+ * The network holds only the weights. Activations live in an
+ * {@link EvaluationContext}; the methods without a context use one context
+ * per calling thread, so inference can run on any number of threads without
+ * locking. Training methods write the shared weights and should not run
+ * concurrently with other calls.
+ * <p>
+ * Inference calls are timed into the latency histogram of
+ * {@link #getMonitor()} and, like mini-batches, reported as JFR events.
+ *
+ * @author Николай
+ */
+public class CompiledNetwork {
+
+    private final int[] sizes;
+    private final int[] offsets;
+    private final ActivationFunction[] functions;
+    private final double[] weights;
+    private final Kernels kernels = Kernels.get();
+    private final ModelMonitor monitor = new ModelMonitor();
+
+    private final ThreadLocal<EvaluationContext> contexts = new ThreadLocal<EvaluationContext>() {
+        @Override
+        protected EvaluationContext initialValue() {
+            return newContext();
+        }
+    };
+
+    /**
+     * Compiles the network and binds its synapses to the new weight array.
+     * An engine compiled earlier from the same network stops seeing weight
+     * updates, so prefer the cached {@link NeuralNetwork#compile()}.
+     */
+    public CompiledNetwork(NeuralNetwork network) {
+        List<NeuronsList> layers = splitLayers(network);
+        int nLayers = layers.size();
+
+        sizes = new int[nLayers];
+        offsets = new int[nLayers];
+        functions = new ActivationFunction[nLayers];
+
+        int nWeights = 0;
+        for (int l = 0; l < nLayers; l++) {
+            sizes[l] = layers.get(l).size();
+            if (l > 0) {
+                offsets[l] = nWeights;
+                nWeights += sizes[l] * sizes[l - 1];
+            }
+        }
+        weights = new double[nWeights];
+
+        // Validate every layer before binding anything, so a network that is
+        // rejected keeps its synapses as they were
+        Synapse[] slots = new Synapse[nWeights];
+        for (int l = 1; l < nLayers; l++) {
+            NeuronsList previous = layers.get(l - 1);
+            NeuronsList layer = layers.get(l);
+
+            Map<Neuron, Integer> positions = new HashMap<>();
+            for (int i = 0; i < previous.size(); i++) {
+                positions.put(previous.get(i), i);
+            }
+
+            functions[l] = layer.get(0).getActivationFunction();
+            for (int o = 0; o < layer.size(); o++) {
+                Neuron neuron = layer.get(o);
+                if (neuron.getActivationFunction().getClass() != functions[l].getClass()) {
+                    throw new IllegalArgumentException("Layer " + l + " mixes activation functions");
+                }
+                if (neuron.getInputsSynapse().size() != previous.size()) {
+                    throw new IllegalArgumentException("Layer " + l + " is not fully connected");
+                }
+                int row = offsets[l] + o * previous.size();
+                boolean[] connected = new boolean[previous.size()];
+                for (Synapse syn : neuron.getInputsSynapse()) {
+                    Integer i = positions.get(syn.getA());
+                    if (i == null || connected[i]) {
+                        throw new IllegalArgumentException("Layer " + l + " is not fully connected");
+                    }
+                    connected[i] = true;
+                    slots[row + i] = syn;
+                }
+            }
+        }
+        for (int w = 0; w < nWeights; w++) {
+            slots[w].bind(weights, w);
+        }
+    }
+
+    /**
+     * Creates a network of fully connected layers straight from its weights,
+     * without a source network, e.g. to load a model for inference only. The
+     * weight array is used as is, in the layout described above; the function
+     * of layer 0 is ignored.
+     */
+    public CompiledNetwork(int[] sizes, ActivationFunction[] functions, double[] weights) {
+        int nLayers = sizes.length;
+        if (nLayers < 2 || functions.length != nLayers) {
+            throw new IllegalArgumentException("Network has no layers to compile");
+        }
+        this.sizes = sizes.clone();
+        this.offsets = new int[nLayers];
+        this.functions = new ActivationFunction[nLayers];
+
+        long nWeights = 0;
+        for (int l = 1; l < nLayers; l++) {
+            if (sizes[l - 1] <= 0 || sizes[l] <= 0 || functions[l] == null) {
+                throw new IllegalArgumentException("Layer " + l + " is empty");
+            }
+            offsets[l] = (int) nWeights;
+            nWeights += (long) sizes[l] * sizes[l - 1];
+            this.functions[l] = functions[l];
+        }
+        if (weights.length != nWeights) {
+            throw new IllegalArgumentException("Network has " + nWeights + " weights, not " + weights.length);
+        }
+        this.weights = weights;
+    }
+
+    /**
+     * Splits the neurons reachable from the outputs into layers by their
+     * distance from the input layer, i.e. the levels of the
+     * {@link ExecutionPlan}.
+     */
+    private static List<NeuronsList> splitLayers(NeuralNetwork network) {
+        ExecutionPlan plan = network.getExecutionPlan();
+        Map<Neuron, Integer> depths = new LinkedHashMap<>();
+        for (int l = 0; l < plan.getLevelCount(); l++) {
+            for (int k = plan.getLevelStart(l); k < plan.getLevelEnd(l); k++) {
+                if (l == 0 && !plan.isInput(k)) {
+                    throw new IllegalArgumentException("Neuron " + plan.getNeuron(k) + " is not connected to the inputs");
+                }
+                depths.put(plan.getNeuron(k), l);
+            }
+        }
+
+        int last = 0;
+        for (Neuron n : network.outputNeurons) {
+            last = Math.max(last, depths.get(n));
+        }
+        if (last == 0 || network.outputNeurons.isEmpty()) {
+            throw new IllegalArgumentException("Network has no layers to compile");
+        }
+
+        List<NeuronsList> layers = new ArrayList<>();
+        for (int l = 0; l <= last; l++) {
+            layers.add(new NeuronsList());
+        }
+        layers.get(0).addAll(network.inputNeurons);
+        layers.get(last).addAll(network.outputNeurons);
+
+        NeuronsList hidden = new NeuronsList();
+        for (Neuron n : network.hiddenNeurons) {
+            if (depths.containsKey(n)) {
+                hidden.add(n);
+            }
+        }
+        for (Neuron n : depths.keySet()) {
+            if (depths.get(n) > 0 && !hidden.contains(n) && !network.outputNeurons.contains(n)) {
+                hidden.add(n);
+            }
+        }
+        for (Neuron n : hidden) {
+            int d = depths.get(n);
+            if (d == last) {
+                throw new IllegalArgumentException("Hidden neuron " + n + " is on the output layer");
+            }
+            layers.get(d).add(n);
+        }
+        for (Neuron n : network.outputNeurons) {
+            if (depths.get(n) != last) {
+                throw new IllegalArgumentException("Output neuron " + n + " skips a layer");
+            }
+        }
+
+        return layers;
+    }
+
+    public int getLayerCount() {
+        return sizes.length;
+    }
+
+    public int getLayerSize(int layer) {
+        return sizes[layer];
+    }
+
+    public int getInputSize() {
+        return sizes[0];
+    }
+
+    public int getOutputSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    public ActivationFunction getActivationFunction(int layer) {
+        return functions[layer];
+    }
+
+    /**
+     * Index of the first weight of the given layer (1 and above) in
+     * {@link #getWeights()}.
+     */
+    public int getWeightOffset(int layer) {
+        return offsets[layer];
+    }
+
+    /**
+     * The weight array shared with the synapses of the source network.
+     */
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * Id and inference latency of this engine.
+     */
+    public ModelMonitor getMonitor() {
+        return monitor;
+    }
+
+    public int getWeightCount() {
+        return weights.length;
+    }
+
+    /**
+     * Name of the vector kernels picked for this JVM, <code>scalar</code>
+     * or e.g. <code>vector256</code> with the Vector API on AVX2.
+     */
+    public static String getKernelName() {
+        return Kernels.get().getName();
+    }
+
+    /**
+     * Creates scratch state for this network, one per thread.
+     */
+    public EvaluationContext newContext() {
+        return new EvaluationContext(this);
+    }
+
+    /**
+     * The context used by the methods without a context argument on the
+     * calling thread.
+     */
+    public EvaluationContext getContext() {
+        return contexts.get();
+    }
+
+    private void checkContext(EvaluationContext context) {
+        if (context.network != this) {
+            throw new IllegalArgumentException("Context belongs to another network");
+        }
+    }
+
+    public double[] calculateOutputs(double[] inputs) {
+        double[] values = new double[getOutputSize()];
+        calculateOutputs(inputs, values);
+        return values;
+    }
+
+    public void calculateOutputs(double[] inputs, double[] values) throws ArrayIndexOutOfBoundsException {
+        calculateOutputs(inputs, 0, inputs.length, values, 0);
+    }
+
+    /**
+     * Calculates the outputs without allocating anything.
+     *
+     * @param inputs array holding the input vector
+     * @param offset index of the first input value
+     * @param length number of input values, missing inputs are 0
+     * @param values receives the outputs
+     * @param valuesOffset index of the first output value
+     */
+    public void calculateOutputs(double[] inputs, int offset, int length, double[] values, int valuesOffset) throws ArrayIndexOutOfBoundsException {
+        calculateOutputs(contexts.get(), inputs, offset, length, values, valuesOffset);
+    }
+
+    /**
+     * Same as {@link #calculateOutputs(double[], int, int, double[], int)}
+     * with explicit scratch state.
+     */
+    public void calculateOutputs(EvaluationContext context, double[] inputs, int offset, int length, double[] values, int valuesOffset) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        InferenceEvent event = InferenceEvent.start();
+        long start = System.nanoTime();
+        forward(context, inputs, offset, length);
+        System.arraycopy(context.outputs[sizes.length - 1], 0, values, valuesOffset, getOutputSize());
+        monitor.inference(event, start, 1);
+    }
+
+    public void backPropagation(double[] inputs, double[] targets, double learningRate) throws ArrayIndexOutOfBoundsException {
+        backPropagation(inputs, 0, inputs.length, targets, 0, targets.length, learningRate);
+    }
+
+    /**
+     * One training step on a sample stored in caller arrays, without
+     * allocating anything. Outputs without a target get no error.
+     */
+    public void backPropagation(double[] inputs, int offset, int length,
+            double[] targets, int targetsOffset, int targetsLength, double learningRate) throws ArrayIndexOutOfBoundsException {
+        backPropagation(contexts.get(), inputs, offset, length, targets, targetsOffset, targetsLength, learningRate);
+    }
+
+    public void backPropagation(EvaluationContext context, double[] inputs, int offset, int length,
+            double[] targets, int targetsOffset, int targetsLength, double learningRate) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        if (targetsLength > getOutputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+        }
+
+        forward(context, inputs, offset, length);
+        calculateErrors(context, targets, targetsOffset, targetsLength);
+
+        for (int l = 1; l < sizes.length; l++) {
+            updateWeights(context, l, learningRate);
+        }
+    }
+
+    public void calculateOutputs(SparseVector inputs, double[] values, int valuesOffset) throws ArrayIndexOutOfBoundsException {
+        calculateOutputs(contexts.get(), inputs, values, valuesOffset);
+    }
+
+    /**
+     * Calculates the outputs for a sparse input vector. The first layer only
+     * reads the weights of the stored entries, so its cost grows with
+     * {@link SparseVector#count()} instead of the input size.
+     * {@link EvaluationContext#getOutputs(int)} is not filled for layer 0.
+     */
+    public void calculateOutputs(EvaluationContext context, SparseVector inputs, double[] values, int valuesOffset) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        InferenceEvent event = InferenceEvent.start();
+        long start = System.nanoTime();
+        forwardSparse(context, inputs);
+        System.arraycopy(context.outputs[sizes.length - 1], 0, values, valuesOffset, getOutputSize());
+        monitor.inference(event, start, 1);
+    }
+
+    public void backPropagation(SparseVector inputs, double[] targets, int targetsOffset, int targetsLength, double learningRate) throws ArrayIndexOutOfBoundsException {
+        backPropagation(contexts.get(), inputs, targets, targetsOffset, targetsLength, learningRate);
+    }
+
+    /**
+     * One training step on a sparse input vector. First-layer weights of
+     * missing (zero) inputs are neither read nor written.
+     */
+    public void backPropagation(EvaluationContext context, SparseVector inputs,
+            double[] targets, int targetsOffset, int targetsLength, double learningRate) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        if (targetsLength > getOutputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+        }
+
+        forwardSparse(context, inputs);
+        calculateErrors(context, targets, targetsOffset, targetsLength);
+
+        updateSparseWeights(context, inputs, learningRate);
+        for (int l = 2; l < sizes.length; l++) {
+            updateWeights(context, l, learningRate);
+        }
+    }
+
+    public void calculateOutputs(BinaryVector inputs, double[] values, int valuesOffset) throws ArrayIndexOutOfBoundsException {
+        calculateOutputs(contexts.get(), inputs, values, valuesOffset);
+    }
+
+    /**
+     * Calculates the outputs for a bit-packed 0/1 input vector. The first
+     * layer adds up the weights of the set bits only.
+     * {@link EvaluationContext#getOutputs(int)} is not filled for layer 0.
+     */
+    public void calculateOutputs(EvaluationContext context, BinaryVector inputs, double[] values, int valuesOffset) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        InferenceEvent event = InferenceEvent.start();
+        long start = System.nanoTime();
+        forwardBinary(context, inputs);
+        System.arraycopy(context.outputs[sizes.length - 1], 0, values, valuesOffset, getOutputSize());
+        monitor.inference(event, start, 1);
+    }
+
+    public void backPropagation(BinaryVector inputs, double[] targets, int targetsOffset, int targetsLength, double learningRate) throws ArrayIndexOutOfBoundsException {
+        backPropagation(contexts.get(), inputs, targets, targetsOffset, targetsLength, learningRate);
+    }
+
+    /**
+     * One training step on a bit-packed 0/1 input vector. Only first-layer
+     * weights of set bits are read and written.
+     */
+    public void backPropagation(EvaluationContext context, BinaryVector inputs,
+            double[] targets, int targetsOffset, int targetsLength, double learningRate) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        if (targetsLength > getOutputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+        }
+
+        forwardBinary(context, inputs);
+        calculateErrors(context, targets, targetsOffset, targetsLength);
+
+        double[] err = context.errors[1];
+        int[] index = context.active;
+        int count = context.activeCount;
+        int n = sizes[0];
+        int row = offsets[1];
+        for (int o = 0; o < err.length; o++, row += n) {
+            double g = learningRate * err[o];
+            for (int k = 0; k < count; k++) {
+                weights[row + index[k]] += g;
+            }
+        }
+        for (int l = 2; l < sizes.length; l++) {
+            updateWeights(context, l, learningRate);
+        }
+    }
+
+    /**
+     * Output errors and hidden errors of the last single-sample forward
+     * pass, all computed with the weights before the update.
+     */
+    private void calculateErrors(EvaluationContext context, double[] targets, int targetsOffset, int targetsLength) {
+        // Output errors, same rule as NeuralNetwork.bpCalculateOutputError
+        int last = sizes.length - 1;
+        double[] out = context.outputs[last];
+        double[] err = context.errors[last];
+        for (int o = 0; o < err.length; o++) {
+            err[o] = o < targetsLength ? targets[targetsOffset + o] - out[o] : 0.0;
+        }
+        functions[last].derive(out, err, 0, err.length);
+
+        for (int l = last - 1; l > 0; l--) {
+            backward(context, l);
+        }
+    }
+
+    /**
+     * Trains on a whole batch at once. Errors of all samples are computed
+     * with the same weights, then every weight is moved once by
+     * <code>learningRate</code> times the gradient averaged over the batch.
+     *
+     * @param inputs one input vector per sample
+     * @param targets one target vector per sample
+     * @param learningRate step size
+     */
+    public void trainBatch(double[][] inputs, double[][] targets, double learningRate) throws ArrayIndexOutOfBoundsException {
+        trainBatch(contexts.get(), inputs, targets, learningRate);
+    }
+
+    public void trainBatch(EvaluationContext context, double[][] inputs, double[][] targets, double learningRate) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        int count = inputs.length;
+        if (targets.length != count) {
+            throw new IllegalArgumentException("Batch has " + count + " inputs and " + targets.length + " targets");
+        }
+        if (count == 0) {
+            return;
+        }
+        TrainingBatchEvent event = new TrainingBatchEvent();
+        event.begin();
+        propagateBatch(context, inputs, targets, 0, count);
+
+        // One update per weight: W(l) += rate / count * E(l)^T * A(l-1)
+        double scale = learningRate / count;
+        for (int l = 1; l < sizes.length; l++) {
+            Matrix.addTransposedProduct(scale, context.batchErrors[l], context.batchOutputs[l - 1], weights, offsets[l], count, sizes[l], sizes[l - 1]);
+        }
+        event.finish(monitor.getId(), count);
+    }
+
+    /**
+     * Adds the gradients of samples <code>from</code> (inclusive) to
+     * <code>to</code> (exclusive) to <code>gradients</code>, which is laid
+     * out like {@link #getWeights()}. The weights are not changed, so several
+     * threads may accumulate into their own buffers at once.
+     */
+    public void accumulateGradients(EvaluationContext context, double[][] inputs, double[][] targets, int from, int to, double[] gradients) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        if (gradients.length != weights.length) {
+            throw new IllegalArgumentException("Gradient buffer does not match the weights");
+        }
+        int count = to - from;
+        if (count <= 0) {
+            return;
+        }
+        propagateBatch(context, inputs, targets, from, count);
+
+        for (int l = 1; l < sizes.length; l++) {
+            Matrix.addTransposedProduct(1.0, context.batchErrors[l], context.batchOutputs[l - 1], gradients, offsets[l], count, sizes[l], sizes[l - 1]);
+        }
+    }
+
+    /**
+     * Moves every weight by <code>scale</code> times its gradient.
+     */
+    public void applyGradients(double[] gradients, double scale) {
+        if (gradients.length != weights.length) {
+            throw new IllegalArgumentException("Gradient buffer does not match the weights");
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] += scale * gradients[i];
+        }
+    }
+
+    /**
+     * One training step on one sample with the update rule of
+     * <code>optimizer</code>, which keeps its state aligned with
+     * {@link #getWeights()}.
+     */
+    public void backPropagation(double[] inputs, double[] targets, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        backPropagation(contexts.get(), inputs, 0, inputs.length, targets, 0, targets.length, optimizer);
+    }
+
+    public void backPropagation(EvaluationContext context, double[] inputs, int offset, int length,
+            double[] targets, int targetsOffset, int targetsLength, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        if (targetsLength > getOutputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+        }
+
+        long[] phases = context.phaseNanos;
+        long time = phases != null ? System.nanoTime() : 0L;
+        forward(context, inputs, offset, length);
+        time = lap(phases, TrainingPhase.FORWARD, time);
+        calculateErrors(context, targets, targetsOffset, targetsLength);
+        time = lap(phases, TrainingPhase.ERROR, time);
+
+        double[] gradients = context.clearGradients();
+        for (int l = 1; l < sizes.length; l++) {
+            double[] err = context.errors[l];
+            double[] prev = context.outputs[l - 1];
+            kernels.addOuterProduct(1.0, err, 0, err.length, prev, 0, prev.length, gradients, offsets[l]);
+        }
+        optimizer.step(weights, gradients);
+        lap(phases, TrainingPhase.UPDATE, time);
+    }
+
+    public void backPropagation(BinaryVector inputs, double[] targets, int targetsOffset, int targetsLength, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        backPropagation(contexts.get(), inputs, targets, targetsOffset, targetsLength, optimizer);
+    }
+
+    /**
+     * One training step on a bit-packed 0/1 input vector with the update
+     * rule of <code>optimizer</code>. The gradient is only computed for
+     * first-layer weights of set bits, but stateful optimizers still move
+     * every weight.
+     */
+    public void backPropagation(EvaluationContext context, BinaryVector inputs,
+            double[] targets, int targetsOffset, int targetsLength, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        if (targetsLength > getOutputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+        }
+
+        long[] phases = context.phaseNanos;
+        long time = phases != null ? System.nanoTime() : 0L;
+        forwardBinary(context, inputs);
+        time = lap(phases, TrainingPhase.FORWARD, time);
+        calculateErrors(context, targets, targetsOffset, targetsLength);
+        time = lap(phases, TrainingPhase.ERROR, time);
+
+        double[] gradients = context.clearGradients();
+        double[] err = context.errors[1];
+        int[] index = context.active;
+        int count = context.activeCount;
+        int n = sizes[0];
+        int row = offsets[1];
+        for (int o = 0; o < err.length; o++, row += n) {
+            for (int k = 0; k < count; k++) {
+                gradients[row + index[k]] = err[o];
+            }
+        }
+        for (int l = 2; l < sizes.length; l++) {
+            double[] e = context.errors[l];
+            double[] prev = context.outputs[l - 1];
+            kernels.addOuterProduct(1.0, e, 0, e.length, prev, 0, prev.length, gradients, offsets[l]);
+        }
+        optimizer.step(weights, gradients);
+        lap(phases, TrainingPhase.UPDATE, time);
+    }
+
+    /**
+     * Adds the time since <code>since</code> to <code>phase</code> when
+     * phases are timed.
+     *
+     * @return the current time, or 0 when phases are not timed
+     */
+    private static long lap(long[] phases, TrainingPhase phase, long since) {
+        if (phases == null) {
+            return 0L;
+        }
+        long now = System.nanoTime();
+        phases[phase.ordinal()] += now - since;
+        return now;
+    }
+
+    /**
+     * Trains on a whole batch and lets <code>optimizer</code> move the
+     * weights by the gradient averaged over the batch.
+     */
+    public void trainBatch(double[][] inputs, double[][] targets, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        trainBatch(contexts.get(), inputs, targets, optimizer);
+    }
+
+    public void trainBatch(EvaluationContext context, double[][] inputs, double[][] targets, Optimizer optimizer) throws ArrayIndexOutOfBoundsException {
+        checkContext(context);
+        int count = inputs.length;
+        if (targets.length != count) {
+            throw new IllegalArgumentException("Batch has " + count + " inputs and " + targets.length + " targets");
+        }
+        if (count == 0) {
+            return;
+        }
+        TrainingBatchEvent event = new TrainingBatchEvent();
+        event.begin();
+        propagateBatch(context, inputs, targets, 0, count);
+
+        double[] gradients = context.clearGradients();
+        double scale = 1.0 / count;
+        for (int l = 1; l < sizes.length; l++) {
+            Matrix.addTransposedProduct(scale, context.batchErrors[l], context.batchOutputs[l - 1], gradients, offsets[l], count, sizes[l], sizes[l - 1]);
+        }
+        optimizer.step(weights, gradients);
+        event.finish(monitor.getId(), count);
+    }
+
+    /**
+     * Forward pass and error calculation for <code>count</code> samples
+     * starting at <code>from</code>; results are left in the batch buffers of
+     * the context.
+     */
+    private void propagateBatch(EvaluationContext context, double[][] inputs, double[][] targets, int from, int count) throws ArrayIndexOutOfBoundsException {
+        context.ensureBatchCapacity(count);
+        double[][] batchOutputs = context.batchOutputs;
+        double[][] batchErrors = context.batchErrors;
+
+        int last = sizes.length - 1;
+        int nIn = sizes[0];
+        int nOut = sizes[last];
+        double[] in = batchOutputs[0];
+        for (int s = 0; s < count; s++) {
+            double[] input = inputs[from + s];
+            if (input.length > nIn) {
+                throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+            }
+            if (targets[from + s].length > nOut) {
+                throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+            }
+            System.arraycopy(input, 0, in, s * nIn, input.length);
+            for (int i = input.length; i < nIn; i++) {
+                in[s * nIn + i] = 0.0;
+            }
+        }
+
+        // Forward pass: A(l) = f(A(l-1) * W(l)^T)
+        for (int l = 1; l <= last; l++) {
+            double[] out = batchOutputs[l];
+            Matrix.multiplyTransposed(batchOutputs[l - 1], weights, offsets[l], out, count, sizes[l - 1], sizes[l]);
+            functions[l].calculate(out, 0, count * sizes[l]);
+        }
+
+        // Output errors
+        double[] out = batchOutputs[last];
+        double[] err = batchErrors[last];
+        for (int s = 0; s < count; s++) {
+            double[] target = targets[from + s];
+            for (int o = 0; o < nOut; o++) {
+                int i = s * nOut + o;
+                err[i] = o < target.length ? target[o] - out[i] : 0.0;
+            }
+        }
+        functions[last].derive(out, err, 0, count * nOut);
+
+        // Hidden errors: E(l) = (E(l+1) * W(l+1)) .* f'(A(l))
+        for (int l = last - 1; l > 0; l--) {
+            Matrix.multiply(batchErrors[l + 1], weights, offsets[l + 1], batchErrors[l], count, sizes[l + 1], sizes[l]);
+            functions[l].derive(batchOutputs[l], batchErrors[l], 0, count * sizes[l]);
+        }
+    }
+
+    private void forward(EvaluationContext context, double[] inputs, int offset, int length) throws ArrayIndexOutOfBoundsException {
+        if (length > getInputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+
+        double[] in = context.outputs[0];
+        System.arraycopy(inputs, offset, in, 0, length);
+        for (int i = length; i < in.length; i++) {
+            in[i] = 0.0;
+        }
+
+        for (int l = 1; l < sizes.length; l++) {
+            forwardLayer(context, l);
+        }
+    }
+
+    private void forwardSparse(EvaluationContext context, SparseVector inputs) throws ArrayIndexOutOfBoundsException {
+        if (inputs.size() > getInputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+
+        int[] index = inputs.getIndices();
+        double[] value = inputs.getValues();
+        int count = inputs.count();
+        double[] out = context.outputs[1];
+        int n = sizes[0];
+        int row = offsets[1];
+
+        for (int o = 0; o < out.length; o++, row += n) {
+            double sum = 0.0;
+            for (int k = 0; k < count; k++) {
+                sum += weights[row + index[k]] * value[k];
+            }
+            out[o] = sum;
+        }
+        functions[1].calculate(out, 0, out.length);
+
+        for (int l = 2; l < sizes.length; l++) {
+            forwardLayer(context, l);
+        }
+    }
+
+    private void forwardBinary(EvaluationContext context, BinaryVector inputs) throws ArrayIndexOutOfBoundsException {
+        if (inputs.size() > getInputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+
+        // Collect the set bits once, every first-layer neuron reuses them
+        int[] index = context.active;
+        int count = 0;
+        long[] words = inputs.getWords();
+        for (int w = 0; w < words.length; w++) {
+            long bits = words[w];
+            while (bits != 0) {
+                index[count++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        context.activeCount = count;
+
+        double[] out = context.outputs[1];
+        int n = sizes[0];
+        int row = offsets[1];
+        for (int o = 0; o < out.length; o++, row += n) {
+            double sum = 0.0;
+            for (int k = 0; k < count; k++) {
+                sum += weights[row + index[k]];
+            }
+            out[o] = sum;
+        }
+        functions[1].calculate(out, 0, out.length);
+
+        for (int l = 2; l < sizes.length; l++) {
+            forwardLayer(context, l);
+        }
+    }
+
+    private void forwardLayer(EvaluationContext context, int layer) {
+        double[] prev = context.outputs[layer - 1];
+        double[] out = context.outputs[layer];
+        int n = prev.length;
+        int row = offsets[layer];
+
+        for (int o = 0; o < out.length; o++, row += n) {
+            out[o] = kernels.dot(weights, row, prev, 0, n);
+        }
+        functions[layer].calculate(out, 0, out.length);
+    }
+
+    private void backward(EvaluationContext context, int layer) {
+        double[] err = context.errors[layer];
+        double[] next = context.errors[layer + 1];
+        double[] out = context.outputs[layer];
+        int n = err.length;
+        int row = offsets[layer + 1];
+
+        for (int i = 0; i < n; i++) {
+            err[i] = 0.0;
+        }
+        for (int o = 0; o < next.length; o++, row += n) {
+            kernels.axpy(next[o], weights, row, err, 0, n);
+        }
+        functions[layer].derive(out, err, 0, n);
+    }
+
+    private void updateWeights(EvaluationContext context, int layer, double learningRate) {
+        double[] err = context.errors[layer];
+        double[] prev = context.outputs[layer - 1];
+        kernels.addOuterProduct(learningRate, err, 0, err.length, prev, 0, prev.length, weights, offsets[layer]);
+    }
+
+    private void updateSparseWeights(EvaluationContext context, SparseVector inputs, double learningRate) {
+        double[] err = context.errors[1];
+        int[] index = inputs.getIndices();
+        double[] value = inputs.getValues();
+        int count = inputs.count();
+        int n = sizes[0];
+        int row = offsets[1];
+
+        for (int o = 0; o < err.length; o++, row += n) {
+            double g = learningRate * err[o];
+            for (int k = 0; k < count; k++) {
+                weights[row + index[k]] += g * value[k];
+            }
+        }
+    }
+}
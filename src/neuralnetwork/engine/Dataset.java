@@ -0,0 +1,43 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import neuralnetwork.BinaryVector;
+
+/**
+ * Training samples with random access by index, such as a memory-mapped
+ * {@link parser.MappedDataset}. Samples are decoded into caller buffers, so
+ * a {@link Trainer} can visit them in any order without holding them as
+ * objects.
+ * <p>
+ * Reads do not change any state and may run on several threads at once.
+ *
+ * @author Николай
+ */
+public interface Dataset {
+
+    int size();
+
+    int getInputSize();
+
+    int getOutputSize();
+
+    /**
+     * Whether the inputs are 0/1 values, readable as a {@link BinaryVector}.
+     */
+    boolean isBinary();
+
+    /**
+     * Reads the inputs of a binary data set.
+     *
+     * @throws UnsupportedOperationException if the data set is not binary
+     */
+    void readInput(int sample, BinaryVector input);
+
+    void readInput(int sample, double[] input);
+
+    void readTarget(int sample, double[] target);
+}
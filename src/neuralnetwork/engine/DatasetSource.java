@@ -0,0 +1,37 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Sequential reader of training samples that does not keep the data set in
+ * memory, such as {@link parser.TrainSetSource} over
+ * <code>train.csv</code>. Wrap it in a {@link DatasetStream} to decode on a
+ * background thread.
+ *
+ * @author Николай
+ */
+public interface DatasetSource extends Closeable {
+
+    int getInputSize();
+
+    int getOutputSize();
+
+    /**
+     * Goes back to the first sample for a new pass.
+     */
+    void rewind() throws IOException;
+
+    /**
+     * Decodes the next samples into <code>batch</code>, as many as fit.
+     *
+     * @return the number of samples read, also set as the batch size; 0 at
+     * the end of the pass
+     */
+    int read(SampleBatch batch) throws IOException;
+}
@@ -0,0 +1,159 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Background prefetch of a {@link DatasetSource}.
+ * <p>
+ * A producer thread decodes batches into a fixed ring of
+ * {@link SampleBatch} buffers while the consumer trains on the ones already
+ * filled. Filled buffers go through one bounded queue and come back through
+ * another, so nothing is allocated after start-up and the producer can never
+ * run more than the ring ahead. Passes follow each other without a pause:
+ * as soon as the source reaches its end the producer rewinds it and starts
+ * filling the next pass.
+ * <p>
+ * The stream has one consumer thread. Closing it stops the producer; the
+ * source stays open and belongs to the caller.
+ *
+ * @author Николай
+ */
+public class DatasetStream implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    private final DatasetSource source;
+    private final BlockingQueue<SampleBatch> free;
+    private final BlockingQueue<SampleBatch> ready;
+    /**
+     * Put in the ready queue after the producer failed; the ready queue has
+     * one slot more than the ring so this always fits.
+     */
+    private final SampleBatch failed;
+
+    private Thread producer;
+    private volatile Throwable failure;
+    private SampleBatch current;
+
+    public DatasetStream(DatasetSource source) {
+        this(source, DEFAULT_BATCH_SIZE, DEFAULT_BUFFERS);
+    }
+
+    /**
+     * @param batchSize samples per buffer
+     * @param buffers number of buffers in the ring, at least 2
+     */
+    public DatasetStream(DatasetSource source, int batchSize, int buffers) {
+        if (buffers < 2) {
+            throw new IllegalArgumentException("Ring needs at least 2 buffers");
+        }
+        this.source = source;
+        free = new ArrayBlockingQueue<>(buffers);
+        ready = new ArrayBlockingQueue<>(buffers + 1);
+        for (int b = 0; b < buffers; b++) {
+            free.add(new SampleBatch(batchSize, source.getInputSize(), source.getOutputSize()));
+        }
+        failed = new SampleBatch(1, 0, 0);
+    }
+
+    public DatasetSource getSource() {
+        return source;
+    }
+
+    /**
+     * Next filled batch of the current pass, or <code>null</code> at the end
+     * of the pass; the following call starts the next pass. A batch stays
+     * valid until the next call.
+     */
+    public SampleBatch next() throws IOException {
+        if (current != null) {
+            free.add(current);
+            current = null;
+        }
+        if (producer == null) {
+            start();
+        }
+
+        SampleBatch batch;
+        try {
+            batch = ready.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for samples");
+        }
+        if (batch == failed) {
+            // leave the marker for later calls
+            ready.add(failed);
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            throw new IOException("Dataset producer failed", failure);
+        }
+        if (batch.size() == 0) {
+            free.add(batch);
+            return null;
+        }
+        current = batch;
+        return batch;
+    }
+
+    /**
+     * Stops the producer thread and waits for it to exit.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread = producer;
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void start() {
+        producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        }, "DatasetStream");
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                source.rewind();
+                int count;
+                do {
+                    SampleBatch batch = free.take();
+                    count = source.read(batch);
+                    // an empty batch marks the end of the pass
+                    ready.put(batch);
+                } while (count > 0);
+            }
+        } catch (InterruptedException ex) {
+            // closed
+        } catch (IOException | RuntimeException ex) {
+            if (!Thread.currentThread().isInterrupted()) {
+                failure = ex;
+                ready.add(failed);
+            }
+        }
+    }
+}
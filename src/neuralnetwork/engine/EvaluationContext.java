@@ -0,0 +1,97 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Scratch state of one forward or backward pass through a
+ * {@link CompiledNetwork}: the activations and errors of every layer. The
+ * network itself only holds the weights, so any number of threads can use
+ * one network at the same time as long as each has its own context.
+ * <p>
+ * A context is not thread-safe and is meant to be reused call after call.
+ *
+ * @author Николай
+ */
+public class EvaluationContext {
+
+    final CompiledNetwork network;
+
+    final double[][] outputs;
+    final double[][] errors;
+
+    /**
+     * Indices of the set bits of the last binary input.
+     */
+    final int[] active;
+    int activeCount;
+
+    int batchCapacity;
+    double[][] batchOutputs;
+    double[][] batchErrors;
+
+    /**
+     * Gradient buffer of the optimizer-driven training steps, laid out like
+     * the weights.
+     */
+    double[] gradients;
+
+    /**
+     * Nanoseconds spent in each {@link TrainingPhase}, indexed by ordinal,
+     * added up by the optimizer-driven steps while a {@link Trainer} with
+     * listeners uses this context; <code>null</code> otherwise.
+     */
+    long[] phaseNanos;
+
+    EvaluationContext(CompiledNetwork network) {
+        this.network = network;
+
+        int nLayers = network.getLayerCount();
+        outputs = new double[nLayers][];
+        errors = new double[nLayers][];
+        for (int l = 0; l < nLayers; l++) {
+            outputs[l] = new double[network.getLayerSize(l)];
+            errors[l] = new double[network.getLayerSize(l)];
+        }
+        active = new int[network.getInputSize()];
+    }
+
+    public CompiledNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Activations of the given layer after the last single-sample pass.
+     */
+    public double[] getOutputs(int layer) {
+        return outputs[layer];
+    }
+
+    /**
+     * The gradient buffer, zeroed.
+     */
+    double[] clearGradients() {
+        if (gradients == null) {
+            gradients = new double[network.getWeightCount()];
+        } else {
+            Matrix.fill(gradients, gradients.length, 0.0);
+        }
+        return gradients;
+    }
+
+    void ensureBatchCapacity(int count) {
+        if (count <= batchCapacity) {
+            return;
+        }
+        int nLayers = outputs.length;
+        batchOutputs = new double[nLayers][];
+        batchErrors = new double[nLayers][];
+        for (int l = 0; l < nLayers; l++) {
+            batchOutputs[l] = new double[count * outputs[l].length];
+            batchErrors[l] = new double[count * outputs[l].length];
+        }
+        batchCapacity = count;
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.activation.ActivationFunction;
+import neuralnetwork.neuron.Neuron;
+import neuralnetwork.neuron.Synapse;
+
+/**
+ * Topological execution order of an arbitrarily wired
+ * {@link NeuralNetwork}, such as one whose inputs also feed the output
+ * directly.
+ * <p>
+ * The plan holds the input neurons and every neuron the outputs depend on,
+ * numbered so that each neuron comes after all of its sources. Neurons are
+ * grouped into levels by their longest distance from a source: neurons of
+ * one level only read earlier levels, so they are independent of each other
+ * and can be evaluated in parallel. Edges are kept as index arrays, so a
+ * pass is a loop over arrays instead of a recursion with map lookups.
+ * <p>
+ * Weights are read through the {@link Synapse} objects, so the plan stays
+ * valid when the weights change; build a new one when the wiring changes.
+ * Activations and errors live in caller-owned arrays of
+ * {@link #getNeuronCount()} values indexed by plan position, which makes a
+ * plan safe to share between threads.
+ *
+ * @author Николай
+ */
+public class ExecutionPlan {
+
+    /**
+     * Smallest level worth splitting over a pool, and the smallest piece.
+     */
+    static final int PARALLEL_THRESHOLD = 64;
+    static final int PARALLEL_GRAIN = 16;
+
+    private final Neuron[] neurons;
+    private final ActivationFunction[] functions;
+    private final boolean[] inputs;
+    private final Map<Neuron, Integer> indices;
+
+    private final int[] levelStarts;
+
+    private final int[] inStarts;
+    private final int[] inSources;
+    private final Synapse[] inSynapses;
+
+    private final int[] outStarts;
+    private final int[] outTargets;
+    private final Synapse[] outSynapses;
+
+    private final int[] inputIndices;
+    private final int[] outputIndices;
+    /**
+     * Position among the output neurons, -1 for other neurons.
+     */
+    private final int[] outputPositions;
+
+    public ExecutionPlan(NeuralNetwork network) {
+        List<Neuron> reachable = collect(network);
+        int n = reachable.size();
+
+        Map<Neuron, Integer> found = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            found.put(reachable.get(k), k);
+        }
+        boolean[] isInput = new boolean[n];
+        for (Neuron neuron : network.inputNeurons) {
+            isInput[found.get(neuron)] = true;
+        }
+
+        // Kahn's algorithm, levels by longest distance from a source
+        int[] pending = new int[n];
+        int[] level = new int[n];
+        Deque<Integer> ready = new ArrayDeque<>();
+        for (int k = 0; k < n; k++) {
+            if (!isInput[k]) {
+                pending[k] = reachable.get(k).getInputsSynapse().size();
+            }
+            if (pending[k] == 0) {
+                ready.add(k);
+            }
+        }
+        int done = 0;
+        int nLevels = 0;
+        while (!ready.isEmpty()) {
+            int k = ready.poll();
+            done++;
+            nLevels = Math.max(nLevels, level[k] + 1);
+            for (Synapse syn : reachable.get(k).getOutputsSynapse()) {
+                Integer next = found.get(syn.getB());
+                if (next == null || isInput[next]) {
+                    continue;
+                }
+                level[next] = Math.max(level[next], level[k] + 1);
+                if (--pending[next] == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        if (done < n) {
+            throw new IllegalArgumentException("Network has a cycle");
+        }
+
+        // Stable bucket sort by level
+        levelStarts = new int[nLevels + 1];
+        for (int k = 0; k < n; k++) {
+            levelStarts[level[k] + 1]++;
+        }
+        for (int l = 0; l < nLevels; l++) {
+            levelStarts[l + 1] += levelStarts[l];
+        }
+        int[] fill = levelStarts.clone();
+        neurons = new Neuron[n];
+        for (int k = 0; k < n; k++) {
+            neurons[fill[level[k]]++] = reachable.get(k);
+        }
+
+        indices = new HashMap<>();
+        functions = new ActivationFunction[n];
+        inputs = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            indices.put(neurons[k], k);
+            functions[k] = neurons[k].getActivationFunction();
+        }
+        for (Neuron neuron : network.inputNeurons) {
+            inputs[indices.get(neuron)] = true;
+        }
+
+        // Incoming edges; inputs take their value from outside
+        inStarts = new int[n + 1];
+        List<Synapse> in = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            if (!inputs[k]) {
+                in.addAll(neurons[k].getInputsSynapse());
+            }
+            inStarts[k + 1] = in.size();
+        }
+        inSynapses = in.toArray(new Synapse[in.size()]);
+        inSources = new int[inSynapses.length];
+        for (int e = 0; e < inSynapses.length; e++) {
+            inSources[e] = indices.get(inSynapses[e].getA());
+        }
+
+        // Outgoing edges to neurons of the plan
+        outStarts = new int[n + 1];
+        List<Synapse> out = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            for (Synapse syn : neurons[k].getOutputsSynapse()) {
+                Integer target = indices.get(syn.getB());
+                if (target != null && !inputs[target]) {
+                    out.add(syn);
+                }
+            }
+            outStarts[k + 1] = out.size();
+        }
+        outSynapses = out.toArray(new Synapse[out.size()]);
+        outTargets = new int[outSynapses.length];
+        for (int e = 0; e < outSynapses.length; e++) {
+            outTargets[e] = indices.get(outSynapses[e].getB());
+        }
+
+        inputIndices = new int[network.inputNeurons.size()];
+        for (int i = 0; i < inputIndices.length; i++) {
+            inputIndices[i] = indices.get(network.inputNeurons.get(i));
+        }
+        outputIndices = new int[network.outputNeurons.size()];
+        outputPositions = new int[n];
+        Arrays.fill(outputPositions, -1);
+        for (int o = 0; o < outputIndices.length; o++) {
+            outputIndices[o] = indices.get(network.outputNeurons.get(o));
+            outputPositions[outputIndices[o]] = o;
+        }
+    }
+
+    /**
+     * The inputs and, walking back from the outputs, every neuron the
+     * outputs depend on.
+     */
+    private static List<Neuron> collect(NeuralNetwork network) {
+        Map<Neuron, Boolean> seen = new HashMap<>();
+        List<Neuron> reachable = new ArrayList<>();
+        for (Neuron neuron : network.inputNeurons) {
+            if (seen.put(neuron, Boolean.TRUE) == null) {
+                reachable.add(neuron);
+            }
+        }
+
+        Deque<Neuron> stack = new ArrayDeque<>();
+        for (Neuron neuron : network.outputNeurons) {
+            if (seen.put(neuron, Boolean.TRUE) == null) {
+                reachable.add(neuron);
+                stack.push(neuron);
+            }
+        }
+        while (!stack.isEmpty()) {
+            for (Synapse syn : stack.pop().getInputsSynapse()) {
+                Neuron source = syn.getA();
+                if (seen.put(source, Boolean.TRUE) == null) {
+                    reachable.add(source);
+                    stack.push(source);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    public int getNeuronCount() {
+        return neurons.length;
+    }
+
+    public Neuron getNeuron(int index) {
+        return neurons[index];
+    }
+
+    /**
+     * Plan position of the neuron, or -1 when the outputs do not depend on
+     * it.
+     */
+    public int indexOf(Neuron neuron) {
+        Integer index = indices.get(neuron);
+        return index == null ? -1 : index;
+    }
+
+    public boolean isInput(int index) {
+        return inputs[index];
+    }
+
+    public int getLevelCount() {
+        return levelStarts.length - 1;
+    }
+
+    /**
+     * First plan position of the level.
+     */
+    public int getLevelStart(int level) {
+        return levelStarts[level];
+    }
+
+    /**
+     * Plan position after the last neuron of the level.
+     */
+    public int getLevelEnd(int level) {
+        return levelStarts[level + 1];
+    }
+
+    /**
+     * Plan position of input neuron <code>i</code>.
+     */
+    public int getInputIndex(int i) {
+        return inputIndices[i];
+    }
+
+    /**
+     * Plan position of output neuron <code>o</code>.
+     */
+    public int getOutputIndex(int o) {
+        return outputIndices[o];
+    }
+
+    public int getInputCount() {
+        return inputIndices.length;
+    }
+
+    public int getOutputCount() {
+        return outputIndices.length;
+    }
+
+    /**
+     * Forward pass: sets the input neurons to <code>length</code> values
+     * from <code>inputs[offset]</code> (missing ones to 0) and evaluates the
+     * other neurons level by level into <code>values</code>.
+     */
+    public void forward(double[] inputs, int offset, int length, double[] values) throws ArrayIndexOutOfBoundsException {
+        forward(inputs, offset, length, values, null);
+    }
+
+    /**
+     * Same as {@link #forward(double[], int, int, double[])}, evaluating
+     * wide levels in parallel on the pool. <code>pool</code> may be
+     * <code>null</code>.
+     */
+    public void forward(double[] inputs, int offset, int length, double[] values, ForkJoinPool pool) throws ArrayIndexOutOfBoundsException {
+        if (length > inputIndices.length) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+        for (int i = 0; i < inputIndices.length; i++) {
+            values[inputIndices[i]] = i < length ? inputs[offset + i] : 0.0;
+        }
+
+        for (int l = 0; l < getLevelCount(); l++) {
+            int from = levelStarts[l];
+            int to = levelStarts[l + 1];
+            if (pool != null && to - from >= PARALLEL_THRESHOLD) {
+                pool.invoke(new LevelTask(values, from, to));
+            } else {
+                evaluate(values, from, to);
+            }
+        }
+    }
+
+    private void evaluate(double[] values, int from, int to) {
+        for (int k = from; k < to; k++) {
+            if (inputs[k]) {
+                continue;
+            }
+            double sum = 0.0;
+            for (int e = inStarts[k]; e < inStarts[k + 1]; e++) {
+                sum += values[inSources[e]] * inSynapses[e].getWeight();
+            }
+            values[k] = functions[k].calculate(sum);
+        }
+    }
+
+    /**
+     * Backward pass over the values of the last {@link #forward}: the error
+     * of output neuron <code>o</code> is <code>f'(out) * (target - out)</code>
+     * for the first <code>targetsLength</code> outputs and 0 for the others,
+     * the error of any other neuron is <code>f'(out)</code> times the
+     * weighted sum of the errors it feeds. Input neurons get no error.
+     */
+    public void backward(double[] values, double[] errors, double[] targets, int targetsOffset, int targetsLength) throws ArrayIndexOutOfBoundsException {
+        if (targetsLength > outputIndices.length) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+        }
+
+        for (int k = neurons.length - 1; k >= 0; k--) {
+            if (inputs[k]) {
+                errors[k] = 0.0;
+                continue;
+            }
+            double sum = 0.0;
+            int o = outputPositions[k];
+            if (o >= 0) {
+                sum = o < targetsLength ? targets[targetsOffset + o] - values[k] : 0.0;
+            } else {
+                for (int e = outStarts[k]; e < outStarts[k + 1]; e++) {
+                    sum += outSynapses[e].getWeight() * errors[outTargets[e]];
+                }
+            }
+            errors[k] = functions[k].derive(values[k]) * sum;
+        }
+    }
+
+    /**
+     * Moves every weight once by <code>learningRate * error * value</code>,
+     * with the error of the neuron it feeds and the value of the neuron it
+     * reads, as left by the last {@link #forward} and {@link #backward}.
+     * All errors are computed before the first update, so the cost is one
+     * pass over the weights.
+     */
+    public void updateWeights(double[] values, double[] errors, double learningRate) {
+        for (int k = 0; k < neurons.length; k++) {
+            if (inputs[k]) {
+                continue;
+            }
+            double g = learningRate * errors[k];
+            if (g == 0.0) {
+                continue;
+            }
+            for (int e = inStarts[k]; e < inStarts[k + 1]; e++) {
+                Synapse syn = inSynapses[e];
+                syn.setWeight(syn.getWeight() + g * values[inSources[e]]);
+            }
+        }
+    }
+
+    /**
+     * Number of synapses feeding the neurons of the plan. Synapse
+     * <code>e</code> is the one {@link #getWeights} and
+     * {@link #accumulateGradients} put at index <code>e</code>.
+     */
+    public int getWeightCount() {
+        return inSynapses.length;
+    }
+
+    /**
+     * Copies the weights of all synapses into <code>weights</code>.
+     */
+    public void getWeights(double[] weights) {
+        for (int e = 0; e < inSynapses.length; e++) {
+            weights[e] = inSynapses[e].getWeight();
+        }
+    }
+
+    /**
+     * Writes <code>weights</code> back to the synapses.
+     */
+    public void setWeights(double[] weights) {
+        for (int e = 0; e < inSynapses.length; e++) {
+            inSynapses[e].setWeight(weights[e]);
+        }
+    }
+
+    /**
+     * Adds <code>error * value</code> of every synapse to
+     * <code>gradients</code>, laid out like {@link #getWeights}, with the
+     * values and errors of the last {@link #forward} and {@link #backward}.
+     */
+    public void accumulateGradients(double[] values, double[] errors, double[] gradients) {
+        for (int k = 0; k < neurons.length; k++) {
+            if (inputs[k]) {
+                continue;
+            }
+            double err = errors[k];
+            for (int e = inStarts[k]; e < inStarts[k + 1]; e++) {
+                gradients[e] += err * values[inSources[e]];
+            }
+        }
+    }
+
+    /**
+     * Evaluates a range of one level, split in halves down to
+     * {@link #PARALLEL_GRAIN} neurons.
+     */
+    private class LevelTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] values;
+        private final int from;
+        private final int to;
+
+        LevelTask(double[] values, int from, int to) {
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= PARALLEL_GRAIN) {
+                evaluate(values, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new LevelTask(values, from, mid), new LevelTask(values, mid, to));
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.activation.ActivationFunction;
+import neuralnetwork.monitor.InferenceEvent;
+import neuralnetwork.monitor.ModelMonitor;
+
+/**
+ * Inference-only copy of a {@link CompiledNetwork} with weights and
+ * activations stored as <code>float</code> or bfloat16.
+ * <p>
+ * Inference on wide layers is bound by memory bandwidth, so halving (float)
+ * or quartering (bfloat16) the weight array makes it correspondingly
+ * faster. Weighted sums are accumulated in <code>float</code>, or in
+ * <code>double</code> when the rounding of long float sums matters more than
+ * speed. Activation functions are still evaluated in double and their
+ * results rounded to the storage precision.
+ * <p>
+ * The weights are copied when the network is created: build a new one after
+ * training. Like {@link CompiledNetwork}, it is safe to use from several
+ * threads at once.
+ *
+ * @author Николай
+ */
+public class FloatNetwork {
+
+    private final int[] sizes;
+    private final int[] offsets;
+    private final ActivationFunction[] functions;
+    private final Precision precision;
+    private final boolean doubleAccumulation;
+
+    /**
+     * Weights for <code>FLOAT32</code>, <code>null</code> otherwise.
+     */
+    private final float[] weights;
+    /**
+     * Weights for <code>BFLOAT16</code>, <code>null</code> otherwise.
+     */
+    private final short[] halfWeights;
+
+    private final Kernels kernels = Kernels.get();
+    private final ModelMonitor monitor = new ModelMonitor();
+
+    private final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    public FloatNetwork(NeuralNetwork network, Precision precision, boolean doubleAccumulation) {
+        this(network.compile(), precision, doubleAccumulation);
+    }
+
+    public FloatNetwork(CompiledNetwork network, Precision precision, boolean doubleAccumulation) {
+        if (precision == Precision.DOUBLE) {
+            throw new IllegalArgumentException("Use CompiledNetwork for double precision");
+        }
+        this.precision = precision;
+        this.doubleAccumulation = doubleAccumulation;
+
+        int nLayers = network.getLayerCount();
+        sizes = new int[nLayers];
+        offsets = new int[nLayers];
+        functions = new ActivationFunction[nLayers];
+        for (int l = 0; l < nLayers; l++) {
+            sizes[l] = network.getLayerSize(l);
+            offsets[l] = network.getWeightOffset(l);
+            functions[l] = network.getActivationFunction(l);
+        }
+
+        double[] source = network.getWeights();
+        if (precision == Precision.FLOAT32) {
+            weights = new float[source.length];
+            halfWeights = null;
+            for (int i = 0; i < source.length; i++) {
+                weights[i] = (float) source[i];
+            }
+        } else {
+            weights = null;
+            halfWeights = new short[source.length];
+            for (int i = 0; i < source.length; i++) {
+                halfWeights[i] = Precision.toBFloat16((float) source[i]);
+            }
+        }
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public boolean isDoubleAccumulation() {
+        return doubleAccumulation;
+    }
+
+    public int getLayerCount() {
+        return sizes.length;
+    }
+
+    public int getLayerSize(int layer) {
+        return sizes[layer];
+    }
+
+    public int getInputSize() {
+        return sizes[0];
+    }
+
+    public int getOutputSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Memory taken by the weights.
+     */
+    public long getWeightBytes() {
+        int count = weights != null ? weights.length : halfWeights.length;
+        return (long) count * precision.getBytes();
+    }
+
+    /**
+     * Id and inference latency of this network.
+     */
+    public ModelMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Weight from neuron <code>i</code> of layer <code>layer - 1</code> to
+     * neuron <code>o</code> of <code>layer</code>, widened back to double.
+     */
+    public double getWeight(int layer, int o, int i) {
+        int index = offsets[layer] + o * sizes[layer - 1] + i;
+        return weights != null ? weights[index] : Precision.fromBFloat16(halfWeights[index]);
+    }
+
+    public double[] calculateOutputs(double[] inputs) throws ArrayIndexOutOfBoundsException {
+        double[] outputs = new double[getOutputSize()];
+        calculateOutputs(inputs, 0, inputs.length, outputs, 0);
+        return outputs;
+    }
+
+    public void calculateOutputs(double[] inputs, double[] outputs) throws ArrayIndexOutOfBoundsException {
+        calculateOutputs(inputs, 0, inputs.length, outputs, 0);
+    }
+
+    public void calculateOutputs(double[] inputs, int offset, int length, double[] outputs, int outputsOffset) throws ArrayIndexOutOfBoundsException {
+        if (length > getInputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+        InferenceEvent event = InferenceEvent.start();
+        long start = System.nanoTime();
+        Scratch scratch = scratches.get();
+        float[] in = scratch.outputs[0];
+        for (int i = 0; i < length; i++) {
+            in[i] = (float) precision.round(inputs[offset + i]);
+        }
+        for (int i = length; i < in.length; i++) {
+            in[i] = 0f;
+        }
+        float[] out = forward(scratch);
+        for (int o = 0; o < out.length; o++) {
+            outputs[outputsOffset + o] = out[o];
+        }
+        monitor.inference(event, start, 1);
+    }
+
+    public void calculateOutputs(float[] inputs, int offset, int length, float[] outputs, int outputsOffset) throws ArrayIndexOutOfBoundsException {
+        if (length > getInputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+        InferenceEvent event = InferenceEvent.start();
+        long start = System.nanoTime();
+        Scratch scratch = scratches.get();
+        float[] in = scratch.outputs[0];
+        for (int i = 0; i < length; i++) {
+            in[i] = (float) precision.round(inputs[offset + i]);
+        }
+        for (int i = length; i < in.length; i++) {
+            in[i] = 0f;
+        }
+        float[] out = forward(scratch);
+        System.arraycopy(out, 0, outputs, outputsOffset, out.length);
+        monitor.inference(event, start, 1);
+    }
+
+    private float[] forward(Scratch scratch) {
+        double[] sums = scratch.sums;
+        for (int l = 1; l < sizes.length; l++) {
+            float[] prev = scratch.outputs[l - 1];
+            float[] out = scratch.outputs[l];
+            int n = prev.length;
+            int row = offsets[l];
+
+            for (int o = 0; o < out.length; o++, row += n) {
+                sums[o] = weightedSum(scratch, row, prev, n);
+            }
+            functions[l].calculate(sums, 0, out.length);
+            for (int o = 0; o < out.length; o++) {
+                out[o] = (float) precision.round(sums[o]);
+            }
+        }
+        return scratch.outputs[sizes.length - 1];
+    }
+
+    private double weightedSum(Scratch scratch, int row, float[] prev, int n) {
+        float[] w = weights;
+        int offset = row;
+        if (w == null) {
+            // widen one bfloat16 row, only the 16-bit weights come from memory
+            w = scratch.row;
+            offset = 0;
+            kernels.widen(halfWeights, row, w, 0, n);
+        }
+        return doubleAccumulation ? kernels.dotWide(w, offset, prev, 0, n) : kernels.dot(w, offset, prev, 0, n);
+    }
+
+    /**
+     * Per-thread activations, the double buffer the activation functions
+     * work on and one widened bfloat16 weight row.
+     */
+    private class Scratch {
+
+        final float[][] outputs;
+        final double[] sums;
+        final float[] row;
+
+        Scratch() {
+            outputs = new float[sizes.length][];
+            int widest = 0;
+            for (int l = 0; l < sizes.length; l++) {
+                outputs[l] = new float[sizes[l]];
+                widest = Math.max(widest, sizes[l]);
+            }
+            sums = new double[widest];
+            row = new float[widest];
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import neuralnetwork.SparseVector;
+
+/**
+ * Asynchronous lock-free SGD ("Hogwild"). Several threads run per-sample
+ * {@link CompiledNetwork#backPropagation} steps against the one shared
+ * weight array at the same time, each with its own
+ * {@link EvaluationContext}.
+ * <p>
+ * Weight updates are plain racy writes: an update can occasionally be lost
+ * or read half-way through another thread's step. SGD tolerates this when
+ * updates rarely touch the same weights, which is the case for sparse
+ * inputs: with {@link SparseVector} samples a step only writes the
+ * first-layer weights of its non-zero inputs. Results are not reproducible;
+ * use {@link ParallelTrainer} when they have to be.
+ *
+ * @author Николай
+ */
+public class HogwildTrainer {
+
+    private final CompiledNetwork network;
+    private final int threads;
+    private final ExecutorService executor;
+    private final EvaluationContext[] contexts;
+
+    public HogwildTrainer(CompiledNetwork network) {
+        this(network, Runtime.getRuntime().availableProcessors());
+    }
+
+    public HogwildTrainer(CompiledNetwork network, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        this.network = network;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final ThreadFactory threads = Executors.defaultThreadFactory();
+
+            @Override
+            public Thread newThread(Runnable task) {
+                // daemon, like the workers of ParallelTrainer's pool
+                Thread thread = threads.newThread(task);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.contexts = new EvaluationContext[threads];
+        for (int t = 0; t < threads; t++) {
+            contexts[t] = network.newContext();
+        }
+    }
+
+    public CompiledNetwork getNetwork() {
+        return network;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void trainEpoch(double[][] inputs, double[][] targets, double learningRate) throws InterruptedException {
+        trainEpoch(inputs, targets, null, learningRate);
+    }
+
+    /**
+     * One pass over the samples. Thread <code>t</code> trains on positions
+     * <code>t</code>, <code>t + threads</code>, ... of <code>order</code>
+     * (the natural order when <code>order</code> is <code>null</code>).
+     */
+    public void trainEpoch(final double[][] inputs, final double[][] targets, int[] order, final double learningRate) throws InterruptedException {
+        if (targets.length != inputs.length) {
+            throw new IllegalArgumentException("Batch has " + inputs.length + " inputs and " + targets.length + " targets");
+        }
+        run(inputs.length, order, new Step() {
+            @Override
+            void train(EvaluationContext context, int s) {
+                double[] input = inputs[s];
+                double[] target = targets[s];
+                network.backPropagation(context, input, 0, input.length, target, 0, target.length, learningRate);
+            }
+        });
+    }
+
+    public void trainEpoch(SparseVector[] inputs, double[][] targets, double learningRate) throws InterruptedException {
+        trainEpoch(inputs, targets, null, learningRate);
+    }
+
+    /**
+     * Same as {@link #trainEpoch(double[][], double[][], int[], double)} for
+     * sparse inputs.
+     */
+    public void trainEpoch(final SparseVector[] inputs, final double[][] targets, int[] order, final double learningRate) throws InterruptedException {
+        if (targets.length != inputs.length) {
+            throw new IllegalArgumentException("Batch has " + inputs.length + " inputs and " + targets.length + " targets");
+        }
+        run(inputs.length, order, new Step() {
+            @Override
+            void train(EvaluationContext context, int s) {
+                double[] target = targets[s];
+                network.backPropagation(context, inputs[s], target, 0, target.length, learningRate);
+            }
+        });
+    }
+
+    private void run(int samples, final int[] order, final Step step) throws InterruptedException {
+        final int count = order == null ? samples : order.length;
+
+        List<Callable<Void>> workers = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            final EvaluationContext context = contexts[t];
+            workers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int k = first; k < count; k += threads) {
+                        step.train(context, order == null ? k : order[k]);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        for (Future<Void> f : executor.invokeAll(workers)) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    private abstract static class Step {
+
+        abstract void train(EvaluationContext context, int sample);
+    }
+
+    /**
+     * Stops the worker threads. They are daemon threads, so a trainer that is
+     * never shut down does not keep the JVM alive.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
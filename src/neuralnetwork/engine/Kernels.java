@@ -0,0 +1,107 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Vector primitives of the engine: dot products, <code>axpy</code> and
+ * outer-product updates on ranges of <code>double[]</code>, plus a float dot
+ * product for {@link FloatNetwork} and an int8 one for
+ * {@link QuantizedNetwork}.
+ * <p>
+ * {@link #get()} picks the implementation once per JVM. The SIMD version on
+ * <code>jdk.incubator.vector</code> is used when the module is present
+ * (<code>--add-modules jdk.incubator.vector</code>) and the platform has
+ * vectors of at least two doubles; otherwise, or with
+ * <code>-Dneuralnetwork.engine.scalar=true</code>, plain loops are used.
+ * Both give the same results up to the order of the additions in
+ * {@link #dot}.
+ *
+ * @author Николай
+ */
+abstract class Kernels {
+
+    private static final Kernels INSTANCE = load();
+
+    static Kernels get() {
+        return INSTANCE;
+    }
+
+    private static Kernels load() {
+        if (!Boolean.getBoolean("neuralnetwork.engine.scalar")) {
+            try {
+                // By name, so this class still loads without the module
+                Kernels kernels = (Kernels) Class.forName("neuralnetwork.engine.VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+                if (kernels.isSupported()) {
+                    return kernels;
+                }
+            } catch (LinkageError | ReflectiveOperationException ex) {
+                // module not resolved, keep the scalar loops
+            }
+        }
+        return new ScalarKernels();
+    }
+
+    /**
+     * Whether this implementation is worth using on the running platform.
+     */
+    boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Short name for logs and benchmarks.
+     */
+    abstract String getName();
+
+    /**
+     * <code>sum(a[aOff + i] * b[bOff + i])</code> for <code>i &lt; n</code>.
+     */
+    abstract double dot(double[] a, int aOff, double[] b, int bOff, int n);
+
+    /**
+     * Float version of {@link #dot(double[], int, double[], int, int)},
+     * accumulated in <code>float</code>.
+     */
+    abstract float dot(float[] a, int aOff, float[] b, int bOff, int n);
+
+    /**
+     * Float dot product accumulated in <code>double</code>. The products of
+     * two floats are exact in double, so only the sum is rounded.
+     */
+    abstract double dotWide(float[] a, int aOff, float[] b, int bOff, int n);
+
+    /**
+     * int8 dot product accumulated in <code>int</code>; with values in
+     * <code>[-127, 127]</code> it cannot overflow below 133 000 terms.
+     */
+    abstract int dot(byte[] a, int aOff, byte[] b, int bOff, int n);
+
+    /**
+     * Widens <code>n</code> bfloat16 values to floats.
+     */
+    abstract void widen(short[] src, int srcOff, float[] dst, int dstOff, int n);
+
+    /**
+     * <code>y[yOff + i] += alpha * x[xOff + i]</code> for
+     * <code>i &lt; n</code>.
+     */
+    abstract void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n);
+
+    /**
+     * <code>c[m x n] += scale * u[m] * v[n]^T</code>, where <code>c</code> is
+     * row-major from <code>cOff</code>. This is the weight update of one
+     * layer for one sample.
+     */
+    void addOuterProduct(double scale, double[] u, int uOff, int m, double[] v, int vOff, int n, double[] c, int cOff) {
+        for (int j = 0; j < m; j++, cOff += n) {
+            double x = scale * u[uOff + j];
+            if (x != 0.0) {
+                axpy(x, v, vOff, c, cOff, n);
+            }
+        }
+    }
+}
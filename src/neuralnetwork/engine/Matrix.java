@@ -0,0 +1,150 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Cache-blocked matrix kernels on row-major <code>double[]</code> matrices.
+ * The loops are tiled so that a block of weight rows stays in cache while all
+ * samples of a batch are streamed past it.
+ *
+ * @author Николай
+ */
+final class Matrix {
+
+    /**
+     * Weight rows per tile.
+     */
+    static final int BLOCK_ROWS = 16;
+    /**
+     * Columns per tile, 16 rows x 256 doubles = 32 KB.
+     */
+    static final int BLOCK_DEPTH = 256;
+
+    private Matrix() {
+    }
+
+    /**
+     * <code>c[m x n] = a[m x k] * b[n x k]^T</code>, where <code>b</code>
+     * starts at <code>bOff</code>.
+     */
+    static void multiplyTransposed(double[] a, double[] b, int bOff, double[] c, int m, int k, int n) {
+        Kernels kernels = Kernels.get();
+        fill(c, m * n, 0.0);
+
+        for (int k0 = 0; k0 < k; k0 += BLOCK_DEPTH) {
+            int k1 = Math.min(k0 + BLOCK_DEPTH, k);
+            for (int j0 = 0; j0 < n; j0 += BLOCK_ROWS) {
+                int j1 = Math.min(j0 + BLOCK_ROWS, n);
+                int i = 0;
+                // four rows of a share every load of b
+                for (; i + 3 < m; i += 4) {
+                    int a0 = i * k;
+                    int a1 = a0 + k;
+                    int a2 = a1 + k;
+                    int a3 = a2 + k;
+                    for (int j = j0; j < j1; j++) {
+                        int bRow = bOff + j * k;
+                        double s0 = 0.0;
+                        double s1 = 0.0;
+                        double s2 = 0.0;
+                        double s3 = 0.0;
+                        for (int p = k0; p < k1; p++) {
+                            double x = b[bRow + p];
+                            s0 += a[a0 + p] * x;
+                            s1 += a[a1 + p] * x;
+                            s2 += a[a2 + p] * x;
+                            s3 += a[a3 + p] * x;
+                        }
+                        c[i * n + j] += s0;
+                        c[(i + 1) * n + j] += s1;
+                        c[(i + 2) * n + j] += s2;
+                        c[(i + 3) * n + j] += s3;
+                    }
+                }
+                for (; i < m; i++) {
+                    int aRow = i * k;
+                    for (int j = j0; j < j1; j++) {
+                        c[i * n + j] += kernels.dot(a, aRow + k0, b, bOff + j * k + k0, k1 - k0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <code>c[m x k] = a[m x n] * b[n x k]</code>, where <code>b</code>
+     * starts at <code>bOff</code>.
+     */
+    static void multiply(double[] a, double[] b, int bOff, double[] c, int m, int n, int k) {
+        Kernels kernels = Kernels.get();
+        fill(c, m * k, 0.0);
+
+        for (int j0 = 0; j0 < n; j0 += BLOCK_ROWS) {
+            int j1 = Math.min(j0 + BLOCK_ROWS, n);
+            for (int p0 = 0; p0 < k; p0 += BLOCK_DEPTH) {
+                int p1 = Math.min(p0 + BLOCK_DEPTH, k);
+                for (int i = 0; i < m; i++) {
+                    int cRow = i * k;
+                    for (int j = j0; j < j1; j++) {
+                        double x = a[i * n + j];
+                        if (x == 0.0) {
+                            continue;
+                        }
+                        kernels.axpy(x, b, bOff + j * k + p0, c, cRow + p0, p1 - p0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <code>c[n x k] += scale * a[m x n]^T * b[m x k]</code>, where
+     * <code>c</code> starts at <code>cOff</code>.
+     */
+    static void addTransposedProduct(double scale, double[] a, double[] b, double[] c, int cOff, int m, int n, int k) {
+        Kernels kernels = Kernels.get();
+        for (int j0 = 0; j0 < n; j0 += BLOCK_ROWS) {
+            int j1 = Math.min(j0 + BLOCK_ROWS, n);
+            for (int p0 = 0; p0 < k; p0 += BLOCK_DEPTH) {
+                int p1 = Math.min(p0 + BLOCK_DEPTH, k);
+                int i = 0;
+                // four samples per pass, one load and store of c each
+                for (; i + 3 < m; i += 4) {
+                    int b0 = i * k;
+                    int b1 = b0 + k;
+                    int b2 = b1 + k;
+                    int b3 = b2 + k;
+                    for (int j = j0; j < j1; j++) {
+                        double x0 = scale * a[i * n + j];
+                        double x1 = scale * a[(i + 1) * n + j];
+                        double x2 = scale * a[(i + 2) * n + j];
+                        double x3 = scale * a[(i + 3) * n + j];
+                        int cRow = cOff + j * k;
+                        for (int p = p0; p < p1; p++) {
+                            c[cRow + p] += x0 * b[b0 + p] + x1 * b[b1 + p] + x2 * b[b2 + p] + x3 * b[b3 + p];
+                        }
+                    }
+                }
+                for (; i < m; i++) {
+                    int bRow = i * k;
+                    for (int j = j0; j < j1; j++) {
+                        double x = scale * a[i * n + j];
+                        if (x == 0.0) {
+                            continue;
+                        }
+                        kernels.axpy(x, b, bRow + p0, c, cOff + j * k + p0, p1 - p0);
+                    }
+                }
+            }
+        }
+    }
+
+    static void fill(double[] a, int length, double value) {
+        for (int i = 0; i < length; i++) {
+            a[i] = value;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import neuralnetwork.optimizer.Optimizer;
+
+/**
+ * Data-parallel mini-batch training on a {@link ForkJoinPool}.
+ * <p>
+ * A batch is cut into chunks of a fixed number of samples. Each chunk
+ * computes its gradients into its own buffer with the usual error rule
+ * (<code>f'(out) * (target - out)</code>, see
+ * {@link neuralnetwork.activation.ActivationFunction#derive(double)}), the
+ * buffers are summed pairwise along a fixed binary tree over the chunks, and
+ * the sum is applied to the weights once. The chunking and the tree depend
+ * only on the batch size, so the trained weights are bit-for-bit the same
+ * for any number of threads.
+ *
+ * @author Николай
+ */
+public class ParallelTrainer {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16;
+
+    private final CompiledNetwork network;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    private double[][] buffers = new double[0][];
+
+    public ParallelTrainer(CompiledNetwork network) {
+        this(network, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelTrainer(CompiledNetwork network, int parallelism, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.network = network;
+        this.pool = new ForkJoinPool(parallelism);
+        this.chunkSize = chunkSize;
+    }
+
+    public CompiledNetwork getNetwork() {
+        return network;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Trains on one batch and moves every weight once by
+     * <code>learningRate</code> times the gradient averaged over the batch.
+     */
+    public void trainBatch(double[][] inputs, double[][] targets, double learningRate) {
+        int count = inputs.length;
+        if (targets.length != count) {
+            throw new IllegalArgumentException("Batch has " + count + " inputs and " + targets.length + " targets");
+        }
+        if (count == 0) {
+            return;
+        }
+
+        int chunks = (count + chunkSize - 1) / chunkSize;
+        ensureBuffers(chunks);
+        pool.invoke(new GradientTask(inputs, targets, 0, chunks, count));
+
+        network.applyGradients(buffers[0], learningRate / count);
+    }
+
+    /**
+     * Trains on one batch and lets <code>optimizer</code> move the weights by
+     * the gradient averaged over the batch. The optimizer runs on the calling
+     * thread, after all chunks are summed.
+     */
+    public void trainBatch(double[][] inputs, double[][] targets, Optimizer optimizer) {
+        int count = inputs.length;
+        if (targets.length != count) {
+            throw new IllegalArgumentException("Batch has " + count + " inputs and " + targets.length + " targets");
+        }
+        if (count == 0) {
+            return;
+        }
+
+        int chunks = (count + chunkSize - 1) / chunkSize;
+        ensureBuffers(chunks);
+        pool.invoke(new GradientTask(inputs, targets, 0, chunks, count));
+
+        double[] gradients = buffers[0];
+        double scale = 1.0 / count;
+        for (int i = 0; i < gradients.length; i++) {
+            gradients[i] *= scale;
+        }
+        optimizer.step(network.getWeights(), gradients);
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void ensureBuffers(int chunks) {
+        if (buffers.length >= chunks) {
+            return;
+        }
+        double[][] grown = new double[chunks][];
+        System.arraycopy(buffers, 0, grown, 0, buffers.length);
+        for (int c = buffers.length; c < chunks; c++) {
+            grown[c] = new double[network.getWeightCount()];
+        }
+        buffers = grown;
+    }
+
+    /**
+     * Gradients of chunks <code>lo</code> to <code>hi</code>, left in
+     * <code>buffers[lo]</code>.
+     */
+    private class GradientTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[][] inputs;
+        private final double[][] targets;
+        private final int lo;
+        private final int hi;
+        private final int count;
+
+        GradientTask(double[][] inputs, double[][] targets, int lo, int hi, int count) {
+            this.inputs = inputs;
+            this.targets = targets;
+            this.lo = lo;
+            this.hi = hi;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo == 1) {
+                double[] gradients = buffers[lo];
+                Matrix.fill(gradients, gradients.length, 0.0);
+                int from = lo * chunkSize;
+                int to = Math.min(from + chunkSize, count);
+                network.accumulateGradients(network.getContext(), inputs, targets, from, to, gradients);
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            GradientTask left = new GradientTask(inputs, targets, lo, mid, count);
+            GradientTask right = new GradientTask(inputs, targets, mid, hi, count);
+            left.fork();
+            right.compute();
+            left.join();
+
+            double[] sum = buffers[lo];
+            double[] other = buffers[mid];
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += other[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Storage precision of the weights of a network.
+ * <p>
+ * <code>FLOAT32</code> halves and <code>BFLOAT16</code> quarters the memory
+ * of a model. bfloat16 keeps the 8-bit exponent of a float with only 8 bits
+ * of mantissa (about 2-3 significant digits), which is usually enough for
+ * the weights of a trained classifier.
+ *
+ * @author Николай
+ */
+public enum Precision {
+
+    DOUBLE(8),
+    FLOAT32(4),
+    BFLOAT16(2);
+
+    private final int bytes;
+
+    private Precision(int bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Bytes per stored weight.
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Nearest value representable in this precision.
+     */
+    public double round(double value) {
+        switch (this) {
+            case FLOAT32:
+                return (float) value;
+            case BFLOAT16:
+                return fromBFloat16(toBFloat16((float) value));
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Shortest decimal text that reads back as the same value in this
+     * precision, e.g. <code>0.1</code> rather than
+     * <code>0.10000000149011612</code> for a float weight.
+     */
+    public String format(double value) {
+        if (this == DOUBLE) {
+            return String.valueOf(value);
+        }
+        return String.valueOf((float) round(value));
+    }
+
+    /**
+     * bfloat16 bits of the float, rounded to nearest even.
+     */
+    public static short toBFloat16(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        if ((bits & 0x7fffffff) > 0x7f800000) {
+            // NaN: keep it quiet rather than rounding it into infinity
+            return (short) ((bits >>> 16) | 0x0040);
+        }
+        bits += 0x7fff + ((bits >>> 16) & 1);
+        return (short) (bits >>> 16);
+    }
+
+    public static float fromBFloat16(short bits) {
+        return Float.intBitsToFloat(bits << 16);
+    }
+}
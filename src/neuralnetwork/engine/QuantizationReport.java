@@ -0,0 +1,72 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Accuracy of a {@link QuantizedNetwork} against the network it was made
+ * from, over a set of samples.
+ *
+ * @author Николай
+ */
+public class QuantizationReport {
+
+    private final int samples;
+    private final double maxError;
+    private final double meanError;
+    private final int agreements;
+    private final long referenceBytes;
+    private final long quantizedBytes;
+
+    QuantizationReport(int samples, double maxError, double meanError, int agreements, long referenceBytes, long quantizedBytes) {
+        this.samples = samples;
+        this.maxError = maxError;
+        this.meanError = meanError;
+        this.agreements = agreements;
+        this.referenceBytes = referenceBytes;
+        this.quantizedBytes = quantizedBytes;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    /**
+     * Largest absolute difference of any output.
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Mean absolute difference over all outputs of all samples.
+     */
+    public double getMeanError() {
+        return meanError;
+    }
+
+    /**
+     * Fraction of samples where both networks pick the same strongest
+     * output, i.e. the same digit.
+     */
+    public double getAgreement() {
+        return samples == 0 ? 1.0 : (double) agreements / samples;
+    }
+
+    public long getReferenceBytes() {
+        return referenceBytes;
+    }
+
+    public long getQuantizedBytes() {
+        return quantizedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Quantization report: %d samples, max error %.3g, mean error %.3g, "
+                + "agreement %.2f%%, weights %d -> %d bytes",
+                samples, maxError, meanError, 100 * getAgreement(), referenceBytes, quantizedBytes);
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import neuralnetwork.BinaryVector;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.activation.ActivationFunction;
+import neuralnetwork.monitor.InferenceEvent;
+import neuralnetwork.monitor.ModelMonitor;
+
+/**
+ * Inference-only int8 copy of a {@link CompiledNetwork}.
+ * <p>
+ * Weights are quantized symmetrically to <code>[-127, 127]</code> with one
+ * scale per layer or one per neuron. The activations entering every layer
+ * are quantized the same way with one scale per layer, picked by
+ * {@link #calibrate} from the largest activation seen on sample inputs. A
+ * weighted sum is an <code>int</code> dot product of the two byte vectors,
+ * requantized to a real value (<code>sum * weightScale * inputScale</code>)
+ * before the activation function.
+ * <p>
+ * The weights take an eighth of the memory of the double model. Use
+ * {@link #compare} to check the accuracy on held-out samples.
+ *
+ * @author Николай
+ */
+public class QuantizedNetwork {
+
+    /**
+     * Granularity of the weight scales.
+     */
+    public enum Scale {
+        /**
+         * One scale per layer, set by its largest weight.
+         */
+        PER_LAYER,
+        /**
+         * One scale per neuron, set by its largest incoming weight. More
+         * accurate when the rows of a layer have very different ranges.
+         */
+        PER_NEURON
+    }
+
+    private static final int MAX = 127;
+
+    private final int[] sizes;
+    private final int[] offsets;
+    private final ActivationFunction[] functions;
+    private final Scale scale;
+
+    private final byte[] weights;
+    /**
+     * Weight scale of neuron <code>o</code> of layer <code>l</code> at
+     * <code>neuronOffsets[l] + o</code>.
+     */
+    private final double[] weightScales;
+    private final int[] neuronOffsets;
+    /**
+     * Scale of the activations of every layer but the last, as input of the
+     * next one.
+     */
+    private final double[] activationScales;
+
+    private final Kernels kernels = Kernels.get();
+    private final ModelMonitor monitor = new ModelMonitor();
+
+    private final ThreadLocal<Scratch> scratches = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private QuantizedNetwork(CompiledNetwork network, Scale scale, double[] ranges) {
+        this.scale = scale;
+
+        int nLayers = network.getLayerCount();
+        sizes = new int[nLayers];
+        offsets = new int[nLayers];
+        functions = new ActivationFunction[nLayers];
+        neuronOffsets = new int[nLayers];
+        int nNeurons = 0;
+        for (int l = 0; l < nLayers; l++) {
+            sizes[l] = network.getLayerSize(l);
+            offsets[l] = network.getWeightOffset(l);
+            functions[l] = network.getActivationFunction(l);
+            if (l > 0) {
+                // the input layer has no weights
+                neuronOffsets[l] = nNeurons;
+                nNeurons += sizes[l];
+            }
+        }
+
+        activationScales = new double[nLayers - 1];
+        for (int l = 0; l < nLayers - 1; l++) {
+            activationScales[l] = scaleOf(ranges[l]);
+        }
+
+        double[] source = network.getWeights();
+        weights = new byte[source.length];
+        weightScales = new double[nNeurons];
+        for (int l = 1; l < nLayers; l++) {
+            int n = sizes[l - 1];
+            double layerMax = 0.0;
+            if (scale == Scale.PER_LAYER) {
+                for (int i = offsets[l], end = offsets[l] + sizes[l] * n; i < end; i++) {
+                    layerMax = Math.max(layerMax, Math.abs(source[i]));
+                }
+            }
+            for (int o = 0; o < sizes[l]; o++) {
+                int row = offsets[l] + o * n;
+                double max = layerMax;
+                if (scale == Scale.PER_NEURON) {
+                    for (int i = 0; i < n; i++) {
+                        max = Math.max(max, Math.abs(source[row + i]));
+                    }
+                }
+                double s = scaleOf(max);
+                weightScales[neuronOffsets[l] + o] = s;
+                for (int i = 0; i < n; i++) {
+                    weights[row + i] = quantize(source[row + i], 1 / s);
+                }
+            }
+        }
+    }
+
+    /**
+     * Quantizes the network with activation ranges taken from running the
+     * calibration samples through it. A few hundred representative samples
+     * are usually enough.
+     */
+    public static QuantizedNetwork calibrate(CompiledNetwork network, double[][] samples, Scale scale) {
+        EvaluationContext context = network.newContext();
+        double[] outputs = new double[network.getOutputSize()];
+        double[] ranges = new double[network.getLayerCount()];
+        for (double[] sample : samples) {
+            network.calculateOutputs(context, sample, 0, sample.length, outputs, 0);
+            updateRanges(context, ranges);
+        }
+        return new QuantizedNetwork(network, scale, ranges);
+    }
+
+    /**
+     * Same as {@link #calibrate(CompiledNetwork, double[][], Scale)} for
+     * binary samples such as the ones of <code>train.csv</code>.
+     */
+    public static QuantizedNetwork calibrate(CompiledNetwork network, BinaryVector[] samples, Scale scale) {
+        EvaluationContext context = network.newContext();
+        double[] outputs = new double[network.getOutputSize()];
+        double[] ranges = new double[network.getLayerCount()];
+        for (BinaryVector sample : samples) {
+            network.calculateOutputs(context, sample, outputs, 0);
+            updateRanges(context, ranges);
+        }
+        // the binary path does not fill the input layer
+        if (samples.length > 0) {
+            ranges[0] = Math.max(ranges[0], 1.0);
+        }
+        return new QuantizedNetwork(network, scale, ranges);
+    }
+
+    private static void updateRanges(EvaluationContext context, double[] ranges) {
+        for (int l = 0; l < ranges.length; l++) {
+            double[] out = context.getOutputs(l);
+            for (double v : out) {
+                ranges[l] = Math.max(ranges[l], Math.abs(v));
+            }
+        }
+    }
+
+    private static double scaleOf(double range) {
+        return range > 0.0 ? range / MAX : 1.0;
+    }
+
+    private static byte quantize(double value, double inverseScale) {
+        long q = Math.round(value * inverseScale);
+        if (q > MAX) {
+            return MAX;
+        }
+        if (q < -MAX) {
+            return -MAX;
+        }
+        return (byte) q;
+    }
+
+    public Scale getScale() {
+        return scale;
+    }
+
+    public int getLayerCount() {
+        return sizes.length;
+    }
+
+    public int getLayerSize(int layer) {
+        return sizes[layer];
+    }
+
+    public int getInputSize() {
+        return sizes[0];
+    }
+
+    public int getOutputSize() {
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * Memory taken by the weights and their scales.
+     */
+    public long getWeightBytes() {
+        return weights.length + 8L * weightScales.length;
+    }
+
+    /**
+     * Id and inference latency of this network.
+     */
+    public ModelMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * Scale of the inputs of layer <code>layer + 1</code>, i.e. the real
+     * value of one quantization step of the activations of
+     * <code>layer</code>.
+     */
+    public double getActivationScale(int layer) {
+        return activationScales[layer];
+    }
+
+    public double[] calculateOutputs(double[] inputs) throws ArrayIndexOutOfBoundsException {
+        double[] outputs = new double[getOutputSize()];
+        calculateOutputs(inputs, 0, inputs.length, outputs, 0);
+        return outputs;
+    }
+
+    public void calculateOutputs(double[] inputs, double[] outputs) throws ArrayIndexOutOfBoundsException {
+        calculateOutputs(inputs, 0, inputs.length, outputs, 0);
+    }
+
+    public void calculateOutputs(double[] inputs, int offset, int length, double[] outputs, int outputsOffset) throws ArrayIndexOutOfBoundsException {
+        if (length > getInputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+        InferenceEvent event = InferenceEvent.start();
+        long start = System.nanoTime();
+        Scratch scratch = scratches.get();
+        byte[] in = scratch.inputs[0];
+        double inverse = 1 / activationScales[0];
+        for (int i = 0; i < length; i++) {
+            in[i] = quantize(inputs[offset + i], inverse);
+        }
+        for (int i = length; i < in.length; i++) {
+            in[i] = 0;
+        }
+        forward(scratch, outputs, outputsOffset);
+        monitor.inference(event, start, 1);
+    }
+
+    public void calculateOutputs(BinaryVector inputs, double[] outputs, int outputsOffset) throws ArrayIndexOutOfBoundsException {
+        if (inputs.size() > getInputSize()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+        InferenceEvent event = InferenceEvent.start();
+        long start = System.nanoTime();
+        Scratch scratch = scratches.get();
+        byte[] in = scratch.inputs[0];
+        byte one = quantize(1.0, 1 / activationScales[0]);
+        long[] words = inputs.getWords();
+        for (int i = 0; i < in.length; i++) {
+            in[i] = i < inputs.size() && (words[i >>> 6] & (1L << i)) != 0 ? one : 0;
+        }
+        forward(scratch, outputs, outputsOffset);
+        monitor.inference(event, start, 1);
+    }
+
+    private void forward(Scratch scratch, double[] outputs, int outputsOffset) {
+        double[] sums = scratch.sums;
+        int last = sizes.length - 1;
+        for (int l = 1; l <= last; l++) {
+            byte[] prev = scratch.inputs[l - 1];
+            int n = prev.length;
+            int row = offsets[l];
+            double inputScale = activationScales[l - 1];
+            int first = neuronOffsets[l];
+
+            for (int o = 0; o < sizes[l]; o++, row += n) {
+                int acc = kernels.dot(weights, row, prev, 0, n);
+                sums[o] = acc * weightScales[first + o] * inputScale;
+            }
+            functions[l].calculate(sums, 0, sizes[l]);
+
+            if (l < last) {
+                byte[] out = scratch.inputs[l];
+                double inverse = 1 / activationScales[l];
+                for (int o = 0; o < out.length; o++) {
+                    out[o] = quantize(sums[o], inverse);
+                }
+            } else {
+                System.arraycopy(sums, 0, outputs, outputsOffset, sizes[l]);
+            }
+        }
+    }
+
+    /**
+     * Runs the samples through this network and through
+     * <code>reference.calculateOutputs</code> and reports the differences.
+     */
+    public QuantizationReport compare(NeuralNetwork reference, double[][] samples) {
+        double[] expected = new double[getOutputSize()];
+        double[] actual = new double[getOutputSize()];
+        Comparison comparison = new Comparison();
+        for (double[] sample : samples) {
+            reference.calculateOutputs(sample, expected);
+            calculateOutputs(sample, actual);
+            comparison.add(expected, actual);
+        }
+        return comparison.report(reference.compile());
+    }
+
+    /**
+     * Same as {@link #compare(NeuralNetwork, double[][])} for binary
+     * samples.
+     */
+    public QuantizationReport compare(NeuralNetwork reference, BinaryVector[] samples) {
+        double[] expected = new double[getOutputSize()];
+        double[] actual = new double[getOutputSize()];
+        Comparison comparison = new Comparison();
+        for (BinaryVector sample : samples) {
+            reference.calculateOutputs(sample.toArray(), expected);
+            calculateOutputs(sample, actual, 0);
+            comparison.add(expected, actual);
+        }
+        return comparison.report(reference.compile());
+    }
+
+    private class Comparison {
+
+        int samples;
+        int agreements;
+        double maxError;
+        double totalError;
+
+        void add(double[] expected, double[] actual) {
+            for (int o = 0; o < expected.length; o++) {
+                double error = Math.abs(expected[o] - actual[o]);
+                maxError = Math.max(maxError, error);
+                totalError += error;
+            }
+            if (argmax(expected) == argmax(actual)) {
+                agreements++;
+            }
+            samples++;
+        }
+
+        QuantizationReport report(CompiledNetwork reference) {
+            double mean = samples == 0 ? 0.0 : totalError / ((double) samples * getOutputSize());
+            return new QuantizationReport(samples, maxError, mean, agreements,
+                    8L * reference.getWeightCount(), getWeightBytes());
+        }
+    }
+
+    private static int argmax(double[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Per-thread quantized activations and the requantized sums of one
+     * layer.
+     */
+    private class Scratch {
+
+        final byte[][] inputs;
+        final double[] sums;
+
+        Scratch() {
+            inputs = new byte[sizes.length][];
+            int widest = 0;
+            for (int l = 0; l < sizes.length; l++) {
+                inputs[l] = new byte[sizes[l]];
+                widest = Math.max(widest, sizes[l]);
+            }
+            sums = new double[widest];
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import neuralnetwork.BinaryVector;
+
+/**
+ * Reusable buffer of up to <code>capacity</code> samples with bit-packed
+ * inputs, filled by a {@link DatasetSource}. The vectors and target arrays
+ * are allocated once and overwritten by every fill.
+ *
+ * @author Николай
+ */
+public class SampleBatch {
+
+    private final BinaryVector[] inputs;
+    private final double[][] targets;
+    private int size;
+
+    public SampleBatch(int capacity, int inputSize, int outputSize) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Batch capacity must be positive");
+        }
+        inputs = new BinaryVector[capacity];
+        targets = new double[capacity][];
+        for (int s = 0; s < capacity; s++) {
+            inputs[s] = new BinaryVector(inputSize);
+            targets[s] = new double[outputSize];
+        }
+    }
+
+    public int getCapacity() {
+        return inputs.length;
+    }
+
+    /**
+     * Number of valid samples, at the start of the buffers.
+     */
+    public int size() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        if (size < 0 || size > inputs.length) {
+            throw new ArrayIndexOutOfBoundsException("Batch capacity < than number of samples. ");
+        }
+        this.size = size;
+    }
+
+    public BinaryVector getInput(int sample) {
+        return inputs[sample];
+    }
+
+    public double[] getTarget(int sample) {
+        return targets[sample];
+    }
+}
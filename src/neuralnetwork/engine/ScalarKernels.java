@@ -0,0 +1,69 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Plain-loop {@link Kernels}, used when the Vector API is not available.
+ *
+ * @author Николай
+ */
+final class ScalarKernels extends Kernels {
+
+    @Override
+    String getName() {
+        return "scalar";
+    }
+
+    @Override
+    double dot(double[] a, int aOff, double[] b, int bOff, int n) {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    float dot(float[] a, int aOff, float[] b, int bOff, int n) {
+        float sum = 0f;
+        for (int i = 0; i < n; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    double dotWide(float[] a, int aOff, float[] b, int bOff, int n) {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += (double) a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    int dot(byte[] a, int aOff, byte[] b, int bOff, int n) {
+        int sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void widen(short[] src, int srcOff, float[] dst, int dstOff, int n) {
+        for (int i = 0; i < n; i++) {
+            dst[dstOff + i] = Precision.fromBFloat16(src[srcOff + i]);
+        }
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+}
@@ -0,0 +1,1041 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import neuralnetwork.BinaryVector;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.monitor.CheckpointEvent;
+import neuralnetwork.monitor.TrainingBatchEvent;
+import neuralnetwork.optimizer.Optimizer;
+
+/**
+ * Epoch-based training loop around a {@link NeuralNetwork}.
+ * <p>
+ * Every epoch visits the training samples once, one optimizer step per
+ * sample, in the order of a permutation index that is reshuffled in place;
+ * the samples themselves are never copied. A fraction of the samples can be
+ * held out for validation: they are picked once per run and only evaluated.
+ * Without a validation set the training samples are evaluated instead.
+ * Data sets too large for memory are streamed from a {@link DatasetSource}
+ * instead, decoded on a background thread while the network trains.
+ * <p>
+ * Training ends after the maximum number of epochs, when the wall-clock
+ * budget runs out, when the monitored metric reaches its target, when it
+ * has not improved for <code>patience</code> epochs, or when {@link #stop()}
+ * is called from another thread. The weights of the best epoch are put back
+ * at the end unless {@link #setRestoreBest(boolean)} is turned off.
+ * <p>
+ * {@link TrainingListener}s follow a run batch by batch and epoch by epoch,
+ * with the time spent in each {@link TrainingPhase}, throughput, training
+ * loss and allocations. Batches and checkpoints of the best weights are
+ * also reported as JFR events.
+ * <p>
+ * A trainer is configured once and may run any number of times, but not
+ * concurrently.
+ *
+ * @author Николай
+ */
+public class Trainer {
+
+    /**
+     * Validation metric that drives early stopping and the best epoch.
+     */
+    public enum Monitor {
+        /**
+         * Mean squared error per output, lower is better.
+         */
+        LOSS,
+        /**
+         * Share of samples whose strongest output is the strongest target
+         * (for one output: within 0.5 of the target), higher is better.
+         */
+        ACCURACY
+    }
+
+    public static final int DEFAULT_MAX_EPOCHS = 100;
+    public static final int DEFAULT_PATIENCE = 10;
+
+    /**
+     * Samples between two checks of the clock and of {@link #stop()}.
+     */
+    private static final int CHECK_INTERVAL = 256;
+
+    private final NeuralNetwork network;
+    private final Optimizer optimizer;
+
+    private int maxEpochs = DEFAULT_MAX_EPOCHS;
+    private long timeBudget;
+    private double validationSplit;
+    private boolean shuffle = true;
+    private Random random = new Random();
+    private Monitor monitor = Monitor.LOSS;
+    private int patience = DEFAULT_PATIENCE;
+    private double minDelta;
+    private double target = Double.NaN;
+    private boolean restoreBest = true;
+    private final List<TrainingListener> listeners = new ArrayList<>();
+
+    private volatile boolean stopped;
+
+    // State of the run in progress
+    private long start;
+    private long deadline;
+    private TrainingResult.StopReason reason;
+    private long samples;
+    private long model;
+    private Profile profile;
+
+    public Trainer(NeuralNetwork network, Optimizer optimizer) {
+        if (network == null || optimizer == null) {
+            throw new IllegalArgumentException("Network and optimizer are required");
+        }
+        this.network = network;
+        this.optimizer = optimizer;
+    }
+
+    public NeuralNetwork getNetwork() {
+        return network;
+    }
+
+    public Optimizer getOptimizer() {
+        return optimizer;
+    }
+
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    public void setMaxEpochs(int maxEpochs) {
+        if (maxEpochs <= 0) {
+            throw new IllegalArgumentException("Epoch count must be positive");
+        }
+        this.maxEpochs = maxEpochs;
+    }
+
+    /**
+     * Wall-clock budget in nanoseconds, 0 for none.
+     */
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * Stops training once <code>budget</code> has passed. The clock is
+     * checked every few hundred samples and the epoch in progress is cut
+     * short; 0 removes the budget.
+     */
+    public void setTimeBudget(long budget, TimeUnit unit) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("Time budget is negative");
+        }
+        this.timeBudget = unit.toNanos(budget);
+    }
+
+    public double getValidationSplit() {
+        return validationSplit;
+    }
+
+    /**
+     * Fraction of the samples held out for validation, in
+     * <code>[0, 1)</code>. At least one sample is always trained on.
+     */
+    public void setValidationSplit(double validationSplit) {
+        if (!(validationSplit >= 0 && validationSplit < 1)) {
+            throw new IllegalArgumentException("Validation split must be in [0, 1)");
+        }
+        this.validationSplit = validationSplit;
+    }
+
+    public boolean isShuffle() {
+        return shuffle;
+    }
+
+    /**
+     * Whether the samples are visited in a new random order every epoch.
+     * Without shuffling the validation samples are the last ones.
+     */
+    public void setShuffle(boolean shuffle) {
+        this.shuffle = shuffle;
+    }
+
+    /**
+     * Source of the shuffles and of the validation split; pass a seeded
+     * generator for reproducible runs.
+     */
+    public void setRandom(Random random) {
+        this.random = random;
+    }
+
+    public Monitor getMonitor() {
+        return monitor;
+    }
+
+    public void setMonitor(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    public int getPatience() {
+        return patience;
+    }
+
+    /**
+     * Number of epochs without an improvement of more than
+     * {@link #setMinDelta(double) minDelta} after which training stops; 0
+     * turns early stopping off.
+     */
+    public void setPatience(int patience) {
+        if (patience < 0) {
+            throw new IllegalArgumentException("Patience is negative");
+        }
+        this.patience = patience;
+    }
+
+    public double getMinDelta() {
+        return minDelta;
+    }
+
+    public void setMinDelta(double minDelta) {
+        this.minDelta = minDelta;
+    }
+
+    public double getTarget() {
+        return target;
+    }
+
+    /**
+     * Stops training as soon as the monitored metric is at most
+     * (<code>LOSS</code>) or at least (<code>ACCURACY</code>)
+     * <code>target</code>. <code>NaN</code> means no target.
+     */
+    public void setTarget(double target) {
+        this.target = target;
+    }
+
+    public boolean isRestoreBest() {
+        return restoreBest;
+    }
+
+    public void setRestoreBest(boolean restoreBest) {
+        this.restoreBest = restoreBest;
+    }
+
+    /**
+     * Registers <code>listener</code> for the next runs. Phases are only
+     * timed while at least one listener is registered.
+     */
+    public void addListener(TrainingListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("Listener is required");
+        }
+        listeners.add(listener);
+    }
+
+    public void removeListener(TrainingListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Asks a running {@link #train} to return. Safe to call from any thread.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    public TrainingResult train(final double[][] inputs, final double[][] targets) {
+        checkSamples(inputs.length, targets.length);
+        return run(new Indexed(targets.length) {
+            @Override
+            double[] train(int s) {
+                double[] in = inputs[s];
+                double[] t = targets[s];
+                network.backPropagation(in, 0, in.length, t, 0, t.length, optimizer);
+                return t;
+            }
+
+            @Override
+            void evaluate(int s, double[] outputs) {
+                network.calculateOutputs(inputs[s], 0, inputs[s].length, outputs, 0);
+            }
+
+            @Override
+            double[] target(int s) {
+                return targets[s];
+            }
+        });
+    }
+
+    /**
+     * Trains on bit-packed 0/1 inputs such as the ones of
+     * <code>train.csv</code>. Layered networks use the binary paths of
+     * {@link CompiledNetwork}; other networks get the inputs unpacked.
+     */
+    public TrainingResult train(final BinaryVector[] inputs, final double[][] targets) {
+        checkSamples(inputs.length, targets.length);
+        final Binary binary = new Binary();
+        return run(new Indexed(targets.length) {
+            @Override
+            EvaluationContext context() {
+                return binary.context;
+            }
+
+            @Override
+            double[] train(int s) {
+                binary.train(inputs[s], targets[s], null);
+                return targets[s];
+            }
+
+            @Override
+            void evaluate(int s, double[] outputs) {
+                binary.evaluate(inputs[s], outputs);
+            }
+
+            @Override
+            double[] target(int s) {
+                return targets[s];
+            }
+        });
+    }
+
+    /**
+     * Trains on a random-access data set such as a memory-mapped file. Each
+     * sample is decoded into reused buffers when it is visited, so shuffling
+     * and the validation split work as for arrays without holding the data
+     * in memory.
+     */
+    public TrainingResult train(final Dataset dataset) {
+        checkSamples(dataset.size(), dataset.size());
+        checkSizes(dataset.getInputSize(), dataset.getOutputSize());
+        final double[] target = new double[dataset.getOutputSize()];
+        if (dataset.isBinary()) {
+            final Binary binary = new Binary();
+            final BinaryVector input = new BinaryVector(dataset.getInputSize());
+            return run(new Indexed(dataset.size()) {
+                @Override
+                EvaluationContext context() {
+                    return binary.context;
+                }
+
+                @Override
+                void load(int s) {
+                    dataset.readInput(s, input);
+                    dataset.readTarget(s, target);
+                }
+
+                @Override
+                double[] train(int s) {
+                    binary.train(input, target, null);
+                    return target;
+                }
+
+                @Override
+                void evaluate(int s, double[] outputs) {
+                    dataset.readInput(s, input);
+                    binary.evaluate(input, outputs);
+                }
+
+                @Override
+                double[] target(int s) {
+                    dataset.readTarget(s, target);
+                    return target;
+                }
+            });
+        }
+        final double[] input = new double[dataset.getInputSize()];
+        return run(new Indexed(dataset.size()) {
+            @Override
+            void load(int s) {
+                dataset.readInput(s, input);
+                dataset.readTarget(s, target);
+            }
+
+            @Override
+            double[] train(int s) {
+                network.backPropagation(input, 0, input.length, target, 0, target.length, optimizer);
+                return target;
+            }
+
+            @Override
+            void evaluate(int s, double[] outputs) {
+                dataset.readInput(s, input);
+                network.calculateOutputs(input, 0, input.length, outputs, 0);
+            }
+
+            @Override
+            double[] target(int s) {
+                dataset.readTarget(s, target);
+                return target;
+            }
+        });
+    }
+
+    /**
+     * Trains on samples streamed from <code>source</code>, decoded ahead on
+     * a background thread by a {@link DatasetStream}. Only the samples of one
+     * batch are shuffled. The loss and accuracy of an epoch are the ones
+     * seen by the training steps themselves, before each update, so no
+     * second pass is made; the validation split does not apply.
+     */
+    public TrainingResult train(DatasetSource source) throws IOException {
+        return train(source, null);
+    }
+
+    /**
+     * Same as {@link #train(DatasetSource)}, evaluating every epoch on a
+     * separate validation source.
+     */
+    public TrainingResult train(DatasetSource source, DatasetSource validation) throws IOException {
+        checkSizes(source.getInputSize(), source.getOutputSize());
+        if (validation != null) {
+            checkSizes(validation.getInputSize(), validation.getOutputSize());
+        }
+        try (DatasetStream training = new DatasetStream(source);
+                DatasetStream held = validation != null ? new DatasetStream(validation) : null) {
+            return run(new Streamed(training, held));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static void checkSamples(int inputs, int targets) {
+        if (inputs != targets) {
+            throw new IllegalArgumentException("Data has " + inputs + " inputs and " + targets + " targets");
+        }
+        if (inputs == 0) {
+            throw new IllegalArgumentException("Data is empty");
+        }
+    }
+
+    private void checkSizes(int inputs, int outputs) {
+        if (inputs > network.inputNeurons.size()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Inputs < than number of values. ");
+        }
+        if (outputs > network.outputNeurons.size()) {
+            throw new ArrayIndexOutOfBoundsException("Neural Network Output < than number of targets. ");
+        }
+    }
+
+    private TrainingResult run(Data data) {
+        stopped = false;
+        start = System.nanoTime();
+        deadline = timeBudget > 0 ? start + timeBudget : Long.MAX_VALUE;
+        reason = TrainingResult.StopReason.EPOCHS;
+        samples = 0;
+
+        CompiledNetwork engine = network.getEngineOrNull();
+        model = engine != null ? engine.getMonitor().getId() : 0L;
+        double[] best = restoreBest ? new double[weightCount(engine)] : null;
+        Evaluation evaluation = new Evaluation();
+        profile = listeners.isEmpty() ? null : new Profile(data.context(), data.epochSize());
+
+        int epoch = 0;
+        int bestEpoch = 0;
+        double bestLoss = Double.NaN;
+        double bestAccuracy = Double.NaN;
+        double loss = Double.NaN;
+        double accuracy = Double.NaN;
+        int sinceBest = 0;
+
+        try {
+            while (epoch < maxEpochs) {
+                epoch++;
+                if (profile != null) {
+                    profile.startEpoch(epoch);
+                }
+                evaluation.clear();
+                boolean cut = !data.trainEpoch(evaluation);
+                long evaluated = profile != null ? profile.finishTraining() : 0L;
+                data.evaluate(evaluation);
+                loss = evaluation.getLoss();
+                accuracy = evaluation.getAccuracy();
+                if (profile != null) {
+                    profile.finishEpoch(evaluated, loss, accuracy);
+                }
+
+                if (bestEpoch == 0 || improves(loss, accuracy, bestLoss, bestAccuracy)) {
+                    bestEpoch = epoch;
+                    bestLoss = loss;
+                    bestAccuracy = accuracy;
+                    sinceBest = 0;
+                    if (best != null) {
+                        checkpoint(engine, best, epoch, loss, false);
+                    }
+                } else {
+                    sinceBest++;
+                }
+
+                if (cut) {
+                    break;
+                }
+                if (reached(loss, accuracy)) {
+                    reason = TrainingResult.StopReason.TARGET;
+                    break;
+                }
+                if (patience > 0 && sinceBest >= patience) {
+                    reason = TrainingResult.StopReason.PLATEAU;
+                    break;
+                }
+                if (interrupted()) {
+                    break;
+                }
+            }
+        } finally {
+            if (profile != null) {
+                profile.close();
+            }
+        }
+
+        if (best != null && bestEpoch > 0 && bestEpoch != epoch) {
+            checkpoint(engine, best, bestEpoch, bestLoss, true);
+        }
+        TrainingResult result = new TrainingResult(reason, epoch, samples, System.nanoTime() - start,
+                bestEpoch, bestLoss, bestAccuracy, loss, accuracy);
+        if (profile != null) {
+            for (TrainingListener listener : listeners) {
+                listener.trainingFinished(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks {@link #stop()} and the time budget, recording the reason.
+     */
+    private boolean interrupted() {
+        if (stopped) {
+            reason = TrainingResult.StopReason.STOPPED;
+            return true;
+        }
+        if (System.nanoTime() - deadline >= 0) {
+            reason = TrainingResult.StopReason.TIME;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean improves(double loss, double accuracy, double bestLoss, double bestAccuracy) {
+        if (monitor == Monitor.ACCURACY) {
+            return accuracy > bestAccuracy + minDelta;
+        }
+        return loss < bestLoss - minDelta;
+    }
+
+    private boolean reached(double loss, double accuracy) {
+        if (Double.isNaN(target)) {
+            return false;
+        }
+        return monitor == Monitor.ACCURACY ? accuracy >= target : loss <= target;
+    }
+
+    private static boolean isCorrect(double[] outputs, double[] targets) {
+        if (targets.length == 1) {
+            return Math.abs(targets[0] - outputs[0]) < 0.5;
+        }
+        int bestOutput = 0;
+        int bestTarget = 0;
+        for (int o = 1; o < targets.length; o++) {
+            if (outputs[o] > outputs[bestOutput]) {
+                bestOutput = o;
+            }
+            if (targets[o] > targets[bestTarget]) {
+                bestTarget = o;
+            }
+        }
+        return bestOutput == bestTarget;
+    }
+
+    /**
+     * Fisher-Yates shuffle of the first <code>count</code> entries.
+     */
+    private void shuffle(int[] order, int count) {
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+
+    private int weightCount(CompiledNetwork engine) {
+        return engine != null ? engine.getWeightCount() : network.getExecutionPlan().getWeightCount();
+    }
+
+    /**
+     * Saves the weights into <code>best</code>, or puts them back from it.
+     */
+    private void checkpoint(CompiledNetwork engine, double[] best, int epoch, double loss, boolean restore) {
+        CheckpointEvent event = new CheckpointEvent();
+        event.begin();
+        if (restore) {
+            writeWeights(engine, best);
+        } else {
+            readWeights(engine, best);
+        }
+        event.finish(model, epoch, loss, restore);
+    }
+
+    private void readWeights(CompiledNetwork engine, double[] into) {
+        if (engine != null) {
+            System.arraycopy(engine.getWeights(), 0, into, 0, into.length);
+        } else {
+            network.getExecutionPlan().getWeights(into);
+        }
+    }
+
+    private void writeWeights(CompiledNetwork engine, double[] from) {
+        if (engine != null) {
+            System.arraycopy(from, 0, engine.getWeights(), 0, from.length);
+        } else {
+            network.getExecutionPlan().setWeights(from);
+        }
+    }
+
+    /**
+     * Samples of one run.
+     */
+    private abstract class Data {
+
+        /**
+         * Context of the compiled engine used by the training steps, or
+         * <code>null</code> if they do not use the engine.
+         */
+        EvaluationContext context() {
+            CompiledNetwork engine = network.getEngineOrNull();
+            return engine != null ? engine.getContext() : null;
+        }
+
+        /**
+         * Number of training samples per epoch, or -1 if not known.
+         */
+        abstract int epochSize();
+
+        /**
+         * Runs one epoch. Data without a separate evaluation pass adds the
+         * outputs seen during training to <code>evaluation</code>.
+         *
+         * @return <code>false</code> if the epoch was cut short
+         */
+        abstract boolean trainEpoch(Evaluation evaluation);
+
+        /**
+         * Fills <code>evaluation</code> after an epoch, unless the training
+         * pass already did.
+         */
+        abstract void evaluate(Evaluation evaluation);
+    }
+
+    /**
+     * In-memory samples visited through a permutation index. The held-out
+     * samples are the tail of the first permutation.
+     */
+    private abstract class Indexed extends Data {
+
+        final int[] order;
+        final int nTrain;
+        final int evalFrom;
+        final int evalTo;
+        final double[] outputs = new double[network.outputNeurons.size()];
+
+        Indexed(int n) {
+            order = new int[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            if (shuffle) {
+                shuffle(order, n);
+            }
+            nTrain = n - Math.min((int) Math.round(n * validationSplit), n - 1);
+            // evaluate the held-out tail, or the training samples if there is none
+            evalFrom = nTrain < n ? nTrain : 0;
+            evalTo = nTrain < n ? n : nTrain;
+        }
+
+        /**
+         * Reads the sample before {@link #train(int)} for data that is
+         * decoded on access.
+         */
+        void load(int sample) {
+        }
+
+        /**
+         * One training step.
+         *
+         * @return the targets trained on
+         */
+        abstract double[] train(int sample);
+
+        abstract void evaluate(int sample, double[] outputs);
+
+        abstract double[] target(int sample);
+
+        @Override
+        int epochSize() {
+            return nTrain;
+        }
+
+        @Override
+        boolean trainEpoch(Evaluation evaluation) {
+            if (shuffle) {
+                shuffle(order, nTrain);
+            }
+            TrainingBatchEvent event = new TrainingBatchEvent();
+            event.begin();
+            for (int k = 0; k < nTrain; k++) {
+                if (k % CHECK_INTERVAL == CHECK_INTERVAL - 1 && interrupted()) {
+                    event.finish(model, k % CHECK_INTERVAL);
+                    return false;
+                }
+                int s = order[k];
+                if (profile != null) {
+                    long time = System.nanoTime();
+                    load(s);
+                    time = profile.lap(TrainingPhase.DATA, time);
+                    profile.step(time, train(s));
+                } else {
+                    load(s);
+                    train(s);
+                }
+                samples++;
+                if (k % CHECK_INTERVAL == CHECK_INTERVAL - 1) {
+                    event.finish(model, CHECK_INTERVAL);
+                    if (profile != null) {
+                        profile.finishBatch();
+                    }
+                    event = new TrainingBatchEvent();
+                    event.begin();
+                }
+            }
+            if (nTrain % CHECK_INTERVAL != 0) {
+                event.finish(model, nTrain % CHECK_INTERVAL);
+            }
+            return true;
+        }
+
+        @Override
+        void evaluate(Evaluation evaluation) {
+            for (int k = evalFrom; k < evalTo; k++) {
+                int s = order[k];
+                evaluate(s, outputs);
+                evaluation.add(outputs, target(s));
+            }
+        }
+    }
+
+    /**
+     * Batches of a {@link DatasetStream}, shuffled within the batch.
+     */
+    private class Streamed extends Data {
+
+        final DatasetStream training;
+        final DatasetStream validation;
+        final Binary binary = new Binary();
+        final double[] outputs = new double[network.outputNeurons.size()];
+        int[] order = new int[0];
+
+        Streamed(DatasetStream training, DatasetStream validation) {
+            this.training = training;
+            this.validation = validation;
+        }
+
+        @Override
+        EvaluationContext context() {
+            return binary.context;
+        }
+
+        @Override
+        int epochSize() {
+            return -1;
+        }
+
+        @Override
+        boolean trainEpoch(Evaluation evaluation) {
+            Evaluation online = validation == null ? evaluation : null;
+            try {
+                SampleBatch batch;
+                long time = profile != null ? System.nanoTime() : 0L;
+                while ((batch = training.next()) != null) {
+                    if (profile != null) {
+                        profile.lap(TrainingPhase.DATA, time);
+                    }
+                    if (interrupted()) {
+                        return false;
+                    }
+                    TrainingBatchEvent event = new TrainingBatchEvent();
+                    event.begin();
+                    int count = batch.size();
+                    if (order.length < count) {
+                        order = new int[count];
+                    }
+                    for (int i = 0; i < count; i++) {
+                        order[i] = i;
+                    }
+                    if (shuffle) {
+                        shuffle(order, count);
+                    }
+                    for (int k = 0; k < count; k++) {
+                        int s = order[k];
+                        if (profile != null) {
+                            long step = System.nanoTime();
+                            binary.train(batch.getInput(s), batch.getTarget(s), online);
+                            profile.step(step, batch.getTarget(s));
+                        } else {
+                            binary.train(batch.getInput(s), batch.getTarget(s), online);
+                        }
+                        samples++;
+                    }
+                    event.finish(model, count);
+                    if (profile != null) {
+                        profile.finishBatch();
+                        time = System.nanoTime();
+                    }
+                }
+                if (profile != null) {
+                    profile.lap(TrainingPhase.DATA, time);
+                }
+                return true;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        void evaluate(Evaluation evaluation) {
+            if (validation == null) {
+                return;
+            }
+            try {
+                SampleBatch batch;
+                while ((batch = validation.next()) != null) {
+                    for (int s = 0; s < batch.size(); s++) {
+                        binary.evaluate(batch.getInput(s), outputs);
+                        evaluation.add(outputs, batch.getTarget(s));
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Training and evaluation steps on binary inputs: the binary paths of
+     * the compiled engine, or unpacked inputs for other networks.
+     */
+    private class Binary {
+
+        final CompiledNetwork engine = network.getEngineOrNull();
+        final EvaluationContext context = engine != null ? engine.newContext() : null;
+        final double[] outputs = new double[network.outputNeurons.size()];
+
+        /**
+         * One step; adds the outputs before the update to
+         * <code>evaluation</code> unless it is <code>null</code>.
+         */
+        void train(BinaryVector input, double[] target, Evaluation evaluation) {
+            if (engine != null) {
+                engine.backPropagation(context, input, target, 0, target.length, optimizer);
+                if (evaluation != null) {
+                    evaluation.add(context.getOutputs(engine.getLayerCount() - 1), target);
+                }
+                return;
+            }
+            double[] in = input.toArray();
+            if (evaluation != null) {
+                network.calculateOutputs(in, 0, in.length, outputs, 0);
+                evaluation.add(outputs, target);
+            }
+            network.backPropagation(in, 0, in.length, target, 0, target.length, optimizer);
+        }
+
+        void evaluate(BinaryVector input, double[] outputs) {
+            if (engine != null) {
+                engine.calculateOutputs(context, input, outputs, 0);
+            } else {
+                double[] in = input.toArray();
+                network.calculateOutputs(in, 0, in.length, outputs, 0);
+            }
+        }
+    }
+
+    /**
+     * Statistics of a run with listeners. Steps of the compiled engine time
+     * their own phases into {@link TrainingStats#phaseNanos} through the
+     * context; other steps are timed as a whole.
+     */
+    private class Profile {
+
+        final TrainingStats stats = new TrainingStats();
+        final EvaluationContext context;
+        final int outputLayer;
+        long epochStart;
+        long batchStart;
+        long allocatedStart;
+
+        Profile(EvaluationContext context, int epochSize) {
+            this.context = context;
+            outputLayer = context != null ? context.getNetwork().getLayerCount() - 1 : 0;
+            stats.epochSize = epochSize;
+            if (context != null) {
+                context.phaseNanos = stats.phaseNanos;
+            }
+        }
+
+        void close() {
+            if (context != null) {
+                context.phaseNanos = null;
+            }
+        }
+
+        /**
+         * Adds the time since <code>since</code> to <code>phase</code>.
+         *
+         * @return the current time
+         */
+        long lap(TrainingPhase phase, long since) {
+            long now = System.nanoTime();
+            stats.phaseNanos[phase.ordinal()] += now - since;
+            return now;
+        }
+
+        void startEpoch(int epoch) {
+            TrainingStats s = stats;
+            s.epoch = epoch;
+            s.epochSamples = 0;
+            s.epochSquares = 0.0;
+            s.epochOutputs = 0;
+            s.epochCorrect = 0;
+            s.epochCounted = 0;
+            s.validationLoss = Double.NaN;
+            s.validationAccuracy = Double.NaN;
+            Arrays.fill(s.phaseNanos, 0L);
+            clearBatch();
+            allocatedStart = TrainingStats.currentThreadAllocatedBytes();
+            epochStart = System.nanoTime();
+            batchStart = epochStart;
+        }
+
+        /**
+         * Records a training step that started at <code>since</code>, after
+         * its data was loaded.
+         */
+        void step(long since, double[] targets) {
+            TrainingStats s = stats;
+            if (context == null) {
+                lap(TrainingPhase.UPDATE, since);
+            } else {
+                double[] actual = context.getOutputs(outputLayer);
+                double squares = 0.0;
+                for (int o = 0; o < targets.length; o++) {
+                    double d = targets[o] - actual[o];
+                    squares += d * d;
+                }
+                s.batchSquares += squares;
+                s.batchOutputs += targets.length;
+                s.epochSquares += squares;
+                s.epochOutputs += targets.length;
+                s.epochCounted++;
+                if (isCorrect(actual, targets)) {
+                    s.epochCorrect++;
+                }
+            }
+            s.batchSamples++;
+            s.epochSamples++;
+        }
+
+        void finishBatch() {
+            if (stats.batchSamples == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            stats.batchNanos = now - batchStart;
+            update(now);
+            for (TrainingListener listener : listeners) {
+                listener.batchFinished(stats);
+            }
+            clearBatch();
+            batchStart = System.nanoTime();
+        }
+
+        /**
+         * Reports the last partial batch of the epoch.
+         *
+         * @return the time evaluation starts
+         */
+        long finishTraining() {
+            finishBatch();
+            return System.nanoTime();
+        }
+
+        void finishEpoch(long evaluated, double loss, double accuracy) {
+            long now = lap(TrainingPhase.EVALUATION, evaluated);
+            stats.validationLoss = loss;
+            stats.validationAccuracy = accuracy;
+            update(now);
+            for (TrainingListener listener : listeners) {
+                listener.epochFinished(stats);
+            }
+        }
+
+        private void update(long now) {
+            stats.samples = samples;
+            stats.elapsedNanos = now - start;
+            stats.epochNanos = now - epochStart;
+            long allocated = TrainingStats.currentThreadAllocatedBytes();
+            stats.allocatedBytes = allocated >= 0 ? allocated - allocatedStart : -1L;
+        }
+
+        private void clearBatch() {
+            stats.batchSamples = 0;
+            stats.batchNanos = 0;
+            stats.batchSquares = 0.0;
+            stats.batchOutputs = 0;
+        }
+    }
+
+    /**
+     * Loss and accuracy summed over the evaluated samples.
+     */
+    private static class Evaluation {
+
+        double squares;
+        long outputs;
+        int correct;
+        int count;
+
+        void clear() {
+            squares = 0.0;
+            outputs = 0;
+            correct = 0;
+            count = 0;
+        }
+
+        void add(double[] actual, double[] targets) {
+            for (int o = 0; o < targets.length; o++) {
+                double d = targets[o] - actual[o];
+                squares += d * d;
+            }
+            outputs += targets.length;
+            if (isCorrect(actual, targets)) {
+                correct++;
+            }
+            count++;
+        }
+
+        double getLoss() {
+            return outputs == 0 ? 0.0 : squares / outputs;
+        }
+
+        double getAccuracy() {
+            return count == 0 ? 0.0 : (double) correct / count;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Receives the progress of a {@link Trainer} run, on the training thread.
+ * <p>
+ * A batch is a {@link SampleBatch} for streamed data and a fixed number of
+ * steps otherwise. The statistics object is reused and only valid during
+ * the call. Phases are only timed while a listener is registered, so a
+ * trainer without listeners pays nothing for them.
+ *
+ * @author Николай
+ */
+public interface TrainingListener {
+
+    /**
+     * Called after each batch of training steps.
+     */
+    default void batchFinished(TrainingStats stats) {
+    }
+
+    /**
+     * Called after each epoch and its evaluation.
+     */
+    default void epochFinished(TrainingStats stats) {
+    }
+
+    /**
+     * Called once at the end of the run, after the best weights were put
+     * back.
+     */
+    default void trainingFinished(TrainingResult result) {
+    }
+}
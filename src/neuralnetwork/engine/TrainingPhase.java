@@ -0,0 +1,36 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Parts of a training run timed for {@link TrainingListener}s.
+ *
+ * @author Николай
+ */
+public enum TrainingPhase {
+    /**
+     * Reading and decoding samples, or waiting for the next batch of a
+     * stream.
+     */
+    DATA,
+    /**
+     * Forward pass of a training step.
+     */
+    FORWARD,
+    /**
+     * Output and hidden errors of a training step.
+     */
+    ERROR,
+    /**
+     * Gradients and the optimizer step. Networks that are not layered are
+     * trained without the compiled engine, and their whole step counts here.
+     */
+    UPDATE,
+    /**
+     * Evaluation after the epoch.
+     */
+    EVALUATION
+}
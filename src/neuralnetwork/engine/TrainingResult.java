@@ -0,0 +1,128 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+/**
+ * Outcome of one {@link Trainer#train} run.
+ *
+ * @author Николай
+ */
+public class TrainingResult {
+
+    /**
+     * Why training ended.
+     */
+    public enum StopReason {
+        /**
+         * The maximum number of epochs was reached.
+         */
+        EPOCHS,
+        /**
+         * The wall-clock budget ran out.
+         */
+        TIME,
+        /**
+         * The monitored metric reached its target.
+         */
+        TARGET,
+        /**
+         * The monitored metric did not improve for the configured number of
+         * epochs.
+         */
+        PLATEAU,
+        /**
+         * {@link Trainer#stop()} was called.
+         */
+        STOPPED
+    }
+
+    private final StopReason reason;
+    private final int epochs;
+    private final long samples;
+    private final long nanos;
+    private final int bestEpoch;
+    private final double bestLoss;
+    private final double bestAccuracy;
+    private final double loss;
+    private final double accuracy;
+
+    TrainingResult(StopReason reason, int epochs, long samples, long nanos,
+            int bestEpoch, double bestLoss, double bestAccuracy, double loss, double accuracy) {
+        this.reason = reason;
+        this.epochs = epochs;
+        this.samples = samples;
+        this.nanos = nanos;
+        this.bestEpoch = bestEpoch;
+        this.bestLoss = bestLoss;
+        this.bestAccuracy = bestAccuracy;
+        this.loss = loss;
+        this.accuracy = accuracy;
+    }
+
+    public StopReason getStopReason() {
+        return reason;
+    }
+
+    /**
+     * Number of epochs run, the last one possibly cut short.
+     */
+    public int getEpochs() {
+        return epochs;
+    }
+
+    /**
+     * Number of training steps taken.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getElapsedNanos() {
+        return nanos;
+    }
+
+    /**
+     * Epoch with the best monitored metric, starting at 1, or 0 if no epoch
+     * was evaluated.
+     */
+    public int getBestEpoch() {
+        return bestEpoch;
+    }
+
+    /**
+     * Validation loss (mean squared error per output) after the best epoch.
+     */
+    public double getBestLoss() {
+        return bestLoss;
+    }
+
+    /**
+     * Validation accuracy after the best epoch.
+     */
+    public double getBestAccuracy() {
+        return bestAccuracy;
+    }
+
+    /**
+     * Validation loss after the last epoch.
+     */
+    public double getLoss() {
+        return loss;
+    }
+
+    /**
+     * Validation accuracy after the last epoch.
+     */
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s after %d epochs (%d samples, %.1f ms): loss %.6f, accuracy %.2f%%, best epoch %d (loss %.6f, accuracy %.2f%%)",
+                reason, epochs, samples, nanos / 1e6, loss, 100 * accuracy, bestEpoch, bestLoss, 100 * bestAccuracy);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Progress of a {@link Trainer} run as seen by {@link TrainingListener}s.
+ * <p>
+ * Batch figures cover the steps since the previous batch; epoch figures,
+ * including the phase times and allocations, add up from the start of the
+ * epoch. The training loss and accuracy are measured on the outputs of
+ * each step before its update; they are only known for layered networks.
+ *
+ * @author Николай
+ */
+public class TrainingStats {
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    int epoch;
+    int epochSize;
+    long samples;
+    long elapsedNanos;
+
+    int batchSamples;
+    long batchNanos;
+    double batchSquares;
+    long batchOutputs;
+
+    int epochSamples;
+    long epochNanos;
+    double epochSquares;
+    long epochOutputs;
+    int epochCorrect;
+    int epochCounted;
+
+    final long[] phaseNanos = new long[TrainingPhase.values().length];
+    long allocatedBytes;
+
+    double validationLoss = Double.NaN;
+    double validationAccuracy = Double.NaN;
+
+    TrainingStats() {
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes allocated so far by the current thread, or -1 if the JVM does
+     * not count them.
+     */
+    static long currentThreadAllocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1L;
+    }
+
+    /**
+     * Epoch in progress, starting at 1.
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Number of training samples in an epoch, or -1 for streamed data.
+     */
+    public int getEpochSize() {
+        return epochSize;
+    }
+
+    /**
+     * Training steps taken in the whole run.
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public int getBatchSamples() {
+        return batchSamples;
+    }
+
+    public long getBatchNanos() {
+        return batchNanos;
+    }
+
+    public double getBatchSamplesPerSecond() {
+        return rate(batchSamples, batchNanos);
+    }
+
+    /**
+     * Training loss (mean squared error per output) of the batch.
+     */
+    public double getBatchLoss() {
+        return batchOutputs == 0 ? Double.NaN : batchSquares / batchOutputs;
+    }
+
+    public int getEpochSamples() {
+        return epochSamples;
+    }
+
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    public double getSamplesPerSecond() {
+        return rate(epochSamples, epochNanos);
+    }
+
+    /**
+     * Training loss (mean squared error per output) of the epoch so far.
+     */
+    public double getLoss() {
+        return epochOutputs == 0 ? Double.NaN : epochSquares / epochOutputs;
+    }
+
+    /**
+     * Training accuracy of the epoch so far.
+     */
+    public double getAccuracy() {
+        return epochCounted == 0 ? Double.NaN : (double) epochCorrect / epochCounted;
+    }
+
+    /**
+     * Time spent in <code>phase</code> during the epoch so far.
+     */
+    public long getPhaseNanos(TrainingPhase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * Bytes allocated by the training thread during the epoch so far, or -1
+     * if the JVM does not count them. Streamed data is decoded on another
+     * thread and does not count.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Validation loss of the epoch; <code>NaN</code> until the epoch is
+     * evaluated.
+     */
+    public double getValidationLoss() {
+        return validationLoss;
+    }
+
+    /**
+     * Validation accuracy of the epoch; <code>NaN</code> until the epoch is
+     * evaluated.
+     */
+    public double getValidationAccuracy() {
+        return validationAccuracy;
+    }
+
+    private static double rate(long count, long nanos) {
+        return nanos <= 0 ? 0.0 : count * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(String.format("epoch %d: %d samples, %.0f samples/s, loss %.6f",
+                epoch, epochSamples, getSamplesPerSecond(), getLoss()));
+        for (TrainingPhase phase : TrainingPhase.values()) {
+            s.append(String.format(", %s %.1f ms", phase.name().toLowerCase(), getPhaseNanos(phase) / 1e6));
+        }
+        if (allocatedBytes >= 0) {
+            s.append(String.format(", %d KB allocated", allocatedBytes >> 10));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.engine;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Kernels} on <code>jdk.incubator.vector</code>, using the widest
+ * vectors of the platform (4 doubles with AVX2, 8 with AVX-512). Only loaded
+ * by name from {@link Kernels#get()}, so the rest of the engine runs without
+ * the incubator module.
+ * <p>
+ * Products and sums are separate operations rather than <code>fma</code>,
+ * which is emulated very slowly on hardware without FMA units.
+ *
+ * @author Николай
+ */
+final class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    /**
+     * As many floats as {@link #SPECIES} has doubles, widened lane by lane.
+     */
+    private static final VectorSpecies<Float> HALF_FLOATS
+            = VectorSpecies.of(float.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    /**
+     * As many shorts as {@link #INTS} has ints.
+     */
+    private static final VectorSpecies<Short> HALF_SHORTS
+            = VectorSpecies.of(short.class, VectorShape.forBitSize(INTS.vectorBitSize() / 2));
+    /**
+     * As many bytes as {@link #INTS} has ints.
+     */
+    private static final VectorSpecies<Byte> QUARTER_BYTES
+            = VectorSpecies.of(byte.class, VectorShape.forBitSize(Math.max(INTS.vectorBitSize() / 4, 64)));
+
+    @Override
+    boolean isSupported() {
+        return SPECIES.length() >= 2;
+    }
+
+    @Override
+    String getName() {
+        return "vector" + SPECIES.vectorBitSize();
+    }
+
+    @Override
+    double dot(double[] a, int aOff, double[] b, int bOff, int n) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        double sum = 0.0;
+        if (bound > 0) {
+            // two accumulators to hide the latency of the additions
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            for (; i + step < bound; i += 2 * step) {
+                acc0 = acc0.add(DoubleVector.fromArray(SPECIES, a, aOff + i)
+                        .mul(DoubleVector.fromArray(SPECIES, b, bOff + i)));
+                acc1 = acc1.add(DoubleVector.fromArray(SPECIES, a, aOff + i + step)
+                        .mul(DoubleVector.fromArray(SPECIES, b, bOff + i + step)));
+            }
+            for (; i < bound; i += step) {
+                acc0 = acc0.add(DoubleVector.fromArray(SPECIES, a, aOff + i)
+                        .mul(DoubleVector.fromArray(SPECIES, b, bOff + i)));
+            }
+            sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < n; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    float dot(float[] a, int aOff, float[] b, int bOff, int n) {
+        int step = FLOATS.length();
+        int bound = FLOATS.loopBound(n);
+        int i = 0;
+        float sum = 0f;
+        if (bound > 0) {
+            FloatVector acc = FloatVector.zero(FLOATS);
+            for (; i < bound; i += step) {
+                acc = acc.add(FloatVector.fromArray(FLOATS, a, aOff + i)
+                        .mul(FloatVector.fromArray(FLOATS, b, bOff + i)));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < n; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    double dotWide(float[] a, int aOff, float[] b, int bOff, int n) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        double sum = 0.0;
+        if (bound > 0) {
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            for (; i < bound; i += step) {
+                DoubleVector x = (DoubleVector) FloatVector.fromArray(HALF_FLOATS, a, aOff + i)
+                        .convertShape(VectorOperators.F2D, SPECIES, 0);
+                DoubleVector y = (DoubleVector) FloatVector.fromArray(HALF_FLOATS, b, bOff + i)
+                        .convertShape(VectorOperators.F2D, SPECIES, 0);
+                acc = acc.add(x.mul(y));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < n; i++) {
+            sum += (double) a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    int dot(byte[] a, int aOff, byte[] b, int bOff, int n) {
+        // the byte vector can be wider than the ints it fills on small shapes
+        int step = INTS.length();
+        int load = QUARTER_BYTES.length();
+        int i = 0;
+        int sum = 0;
+        if (load <= n) {
+            IntVector acc = IntVector.zero(INTS);
+            for (; i + load <= n; i += step) {
+                IntVector x = (IntVector) ByteVector.fromArray(QUARTER_BYTES, a, aOff + i)
+                        .convertShape(VectorOperators.B2I, INTS, 0);
+                IntVector y = (IntVector) ByteVector.fromArray(QUARTER_BYTES, b, bOff + i)
+                        .convertShape(VectorOperators.B2I, INTS, 0);
+                acc = acc.add(x.mul(y));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < n; i++) {
+            sum += a[aOff + i] * b[bOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void widen(short[] src, int srcOff, float[] dst, int dstOff, int n) {
+        int step = INTS.length();
+        int bound = INTS.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += step) {
+            // bfloat16 bits are the upper half of the float bits
+            ((IntVector) ShortVector.fromArray(HALF_SHORTS, src, srcOff + i)
+                    .convertShape(VectorOperators.S2I, INTS, 0))
+                    .lanewise(VectorOperators.LSHL, 16)
+                    .reinterpretAsFloats()
+                    .intoArray(dst, dstOff + i);
+        }
+        for (; i < n; i++) {
+            dst[dstOff + i] = Precision.fromBFloat16(src[srcOff + i]);
+        }
+    }
+
+    @Override
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n) {
+        int step = SPECIES.length();
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        if (bound > 0) {
+            DoubleVector a = DoubleVector.broadcast(SPECIES, alpha);
+            for (; i < bound; i += step) {
+                DoubleVector.fromArray(SPECIES, y, yOff + i)
+                        .add(DoubleVector.fromArray(SPECIES, x, xOff + i).mul(a))
+                        .intoArray(y, yOff + i);
+            }
+        }
+        for (; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Weights of the best epoch saved aside during training, or put back at
+ * the end.
+ *
+ * @author Николай
+ */
+@Name("neuralnetwork.Checkpoint")
+@Label("Checkpoint")
+@Category({"Neural Network"})
+@Description("Best weights saved or restored by a trainer")
+public final class CheckpointEvent extends jdk.jfr.Event {
+
+    @Label("Model")
+    @Description("Id of the model, 0 for networks trained without the compiled engine")
+    long model;
+
+    @Label("Epoch")
+    int epoch;
+
+    @Label("Loss")
+    double loss;
+
+    @Label("Restore")
+    @Description("Whether the weights were put back rather than saved")
+    boolean restore;
+
+    /**
+     * Commits the event if it is enabled.
+     */
+    public void finish(long model, int epoch, double loss, boolean restore) {
+        if (shouldCommit()) {
+            this.model = model;
+            this.epoch = epoch;
+            this.loss = loss;
+            this.restore = restore;
+            commit();
+        }
+    }
+}
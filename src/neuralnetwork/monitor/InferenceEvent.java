@@ -0,0 +1,54 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * One inference call of a model. Only calls over 1 ms are recorded by
+ * default; lower the threshold in the recording settings to see all.
+ *
+ * @author Николай
+ */
+@Name("neuralnetwork.Inference")
+@Label("Inference")
+@Category({"Neural Network"})
+@Description("Outputs calculated by a model")
+@Threshold("1 ms")
+@StackTrace(false)
+public final class InferenceEvent extends jdk.jfr.Event {
+
+    @Label("Model")
+    long model;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    /**
+     * A new event, begun only if the event type is enabled so that a call
+     * without a recording reads the clock no more than the histogram needs.
+     */
+    public static InferenceEvent start() {
+        InferenceEvent event = new InferenceEvent();
+        if (event.isEnabled()) {
+            event.begin();
+        }
+        return event;
+    }
+
+    void finish(long model, int batchSize) {
+        if (shouldCommit()) {
+            this.model = model;
+            this.batchSize = batchSize;
+            commit();
+        }
+    }
+}
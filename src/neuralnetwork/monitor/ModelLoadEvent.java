@@ -0,0 +1,47 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.monitor;
+
+import java.io.File;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A network loaded from a file by one of the parsers.
+ *
+ * @author Николай
+ */
+@Name("neuralnetwork.ModelLoad")
+@Label("Model Load")
+@Category({"Neural Network"})
+@Description("Network read from a file")
+public final class ModelLoadEvent extends jdk.jfr.Event {
+
+    @Label("Format")
+    String format;
+
+    @Label("Path")
+    String path;
+
+    @Label("Size")
+    @DataAmount
+    long size;
+
+    /**
+     * Commits the event if it is enabled.
+     */
+    public void finish(String format, String path) {
+        if (shouldCommit()) {
+            this.format = format;
+            this.path = path;
+            this.size = new File(path).length();
+            commit();
+        }
+    }
+}
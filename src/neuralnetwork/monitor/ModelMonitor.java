@@ -0,0 +1,44 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Identity and inference latency of one model. Every engine owns one; the
+ * id ties its JFR events together and is unique within the JVM.
+ *
+ * @author Николай
+ */
+public final class ModelMonitor {
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private final long id = IDS.incrementAndGet();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Durations of all inference calls since the model was created or the
+     * histogram reset.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Ends an inference call started at <code>start</code>
+     * ({@link System#nanoTime()}) and begun on <code>event</code>: records
+     * its duration and commits the event if it is enabled.
+     */
+    public void inference(InferenceEvent event, long start, int batchSize) {
+        latency.record(System.nanoTime() - start);
+        event.finish(id, batchSize);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A batch of training steps: a mini-batch of the engine, or a batch of
+ * single-sample steps of a trainer.
+ *
+ * @author Николай
+ */
+@Name("neuralnetwork.TrainingBatch")
+@Label("Training Batch")
+@Category({"Neural Network"})
+@Description("Training steps on a batch of samples")
+@StackTrace(false)
+public final class TrainingBatchEvent extends jdk.jfr.Event {
+
+    @Label("Model")
+    @Description("Id of the model, 0 for networks trained without the compiled engine")
+    long model;
+
+    @Label("Batch Size")
+    int batchSize;
+
+    /**
+     * Commits the event if it is enabled.
+     */
+    public void finish(long model, int batchSize) {
+        if (shouldCommit()) {
+            this.model = model;
+            this.batchSize = batchSize;
+            commit();
+        }
+    }
+}
@@ -88,7 +88,6 @@ public class Neuron {
         for (Synapse s : outputSynapses) {
             d += s.getWeight();
         }
-        System.out.println("getOutput: " + d);
         return d;
     }
 }
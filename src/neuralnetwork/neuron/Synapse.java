@@ -14,7 +14,9 @@ public class Synapse {
 	private final Neuron a;
 	private final Neuron b;
 	private double weight;
-	
+	private double[] store;
+	private int index;
+
 	public Synapse(Neuron a, Neuron b, double weight)
 	{
 		this.a = a;
@@ -41,11 +43,28 @@ public class Synapse {
 	
 	public double getWeight()
 	{
-		return weight;
+		return store == null ? weight : store[index];
 	}
-	
+
 	public void setWeight(double weight)
 	{
-		this.weight = weight;
+		if (store == null) {
+			this.weight = weight;
+		} else {
+			store[index] = weight;
+		}
+	}
+
+	/**
+	 * Moves the weight of this synapse into <code>store[index]</code>. After
+	 * that {@link #getWeight()} and {@link #setWeight(double)} work on the
+	 * array, so the object graph and a compiled engine share one copy of the
+	 * weights.
+	 */
+	public void bind(double[] store, int index)
+	{
+		store[index] = getWeight();
+		this.store = store;
+		this.index = index;
 	}
 }
\ No newline at end of file
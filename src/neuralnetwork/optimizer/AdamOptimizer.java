@@ -0,0 +1,81 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.optimizer;
+
+/**
+ * Adam: running averages of the gradient and of its square, both corrected
+ * for their zero start, give each weight a step of about
+ * <code>rate</code> in the direction its gradients agree on.
+ *
+ * @author Николай
+ */
+public class AdamOptimizer extends Optimizer {
+
+    public static final double DEFAULT_BETA1 = 0.9;
+    public static final double DEFAULT_BETA2 = 0.999;
+    public static final double DEFAULT_EPSILON = 1e-8;
+
+    private final double beta1;
+    private final double beta2;
+    private final double epsilon;
+    private double[] means;
+    private double[] variances;
+
+    public AdamOptimizer(double learningRate) {
+        this(LearningRateSchedule.constant(learningRate), DEFAULT_BETA1, DEFAULT_BETA2, DEFAULT_EPSILON);
+    }
+
+    public AdamOptimizer(LearningRateSchedule schedule) {
+        this(schedule, DEFAULT_BETA1, DEFAULT_BETA2, DEFAULT_EPSILON);
+    }
+
+    public AdamOptimizer(LearningRateSchedule schedule, double beta1, double beta2, double epsilon) {
+        super(schedule);
+        if (beta1 < 0 || beta1 >= 1 || beta2 < 0 || beta2 >= 1) {
+            throw new IllegalArgumentException("Betas must be in [0, 1)");
+        }
+        this.beta1 = beta1;
+        this.beta2 = beta2;
+        this.epsilon = epsilon;
+    }
+
+    public double getBeta1() {
+        return beta1;
+    }
+
+    public double getBeta2() {
+        return beta2;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    @Override
+    protected void allocate(int size) {
+        means = new double[size];
+        variances = new double[size];
+    }
+
+    @Override
+    protected void update(double[] weights, double[] gradients, double rate, long step) {
+        double[] m = means;
+        double[] v = variances;
+        // Bias corrections folded into the step size and epsilon
+        double c1 = 1 - Math.pow(beta1, step);
+        double c2 = Math.sqrt(1 - Math.pow(beta2, step));
+        double alpha = rate * c2 / c1;
+        double eps = epsilon * c2;
+        double k1 = 1 - beta1;
+        double k2 = 1 - beta2;
+        for (int i = 0; i < weights.length; i++) {
+            double g = gradients[i];
+            m[i] = beta1 * m[i] + k1 * g;
+            v[i] = beta2 * v[i] + k2 * g * g;
+            weights[i] += alpha * m[i] / (Math.sqrt(v[i]) + eps);
+        }
+    }
+}
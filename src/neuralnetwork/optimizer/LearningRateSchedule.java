@@ -0,0 +1,71 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.optimizer;
+
+/**
+ * Learning rate as a function of the step number.
+ *
+ * @author Николай
+ */
+public interface LearningRateSchedule {
+
+    /**
+     * Learning rate of step <code>step</code>, starting at 0.
+     */
+    double getRate(long step);
+
+    /**
+     * The same rate at every step.
+     */
+    static LearningRateSchedule constant(double rate) {
+        return step -> rate;
+    }
+
+    /**
+     * Multiplies the rate by <code>factor</code> every
+     * <code>interval</code> steps.
+     */
+    static LearningRateSchedule stepDecay(double rate, double factor, long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        return step -> rate * Math.pow(factor, step / interval);
+    }
+
+    /**
+     * Smooth decay, <code>rate * decay^step</code>.
+     */
+    static LearningRateSchedule exponential(double rate, double decay) {
+        return step -> rate * Math.pow(decay, step);
+    }
+
+    /**
+     * Decay as <code>rate / (1 + decay * step)</code>.
+     */
+    static LearningRateSchedule inverseTime(double rate, double decay) {
+        return step -> rate / (1 + decay * step);
+    }
+
+    /**
+     * Half a cosine from <code>rate</code> down to <code>minRate</code> over
+     * <code>steps</code> steps, then <code>minRate</code>.
+     */
+    static LearningRateSchedule cosine(double rate, double minRate, long steps) {
+        if (steps <= 0) {
+            throw new IllegalArgumentException("Step count must be positive");
+        }
+        return step -> step >= steps ? minRate
+                : minRate + 0.5 * (rate - minRate) * (1 + Math.cos(Math.PI * step / steps));
+    }
+
+    /**
+     * Linear ramp from 0 over the first <code>steps</code> steps, then the
+     * given schedule counted from the end of the warm-up.
+     */
+    static LearningRateSchedule warmUp(long steps, LearningRateSchedule then) {
+        return step -> step < steps ? then.getRate(0) * (step + 1) / (steps + 1) : then.getRate(step - steps);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.optimizer;
+
+/**
+ * Gradient descent with momentum:
+ * <code>velocity = momentum * velocity + rate * gradient</code>, then
+ * <code>weight += velocity</code>.
+ * <p>
+ * With Nesterov momentum the weight moves by
+ * <code>momentum * velocity + rate * gradient</code> instead, which is the
+ * usual reformulation of evaluating the gradient at the look-ahead point.
+ *
+ * @author Николай
+ */
+public class MomentumOptimizer extends Optimizer {
+
+    public static final double DEFAULT_MOMENTUM = 0.9;
+
+    private final double momentum;
+    private final boolean nesterov;
+    private double[] velocity;
+
+    public MomentumOptimizer(double learningRate) {
+        this(LearningRateSchedule.constant(learningRate), DEFAULT_MOMENTUM, false);
+    }
+
+    public MomentumOptimizer(double learningRate, double momentum, boolean nesterov) {
+        this(LearningRateSchedule.constant(learningRate), momentum, nesterov);
+    }
+
+    public MomentumOptimizer(LearningRateSchedule schedule, double momentum, boolean nesterov) {
+        super(schedule);
+        if (momentum < 0 || momentum >= 1) {
+            throw new IllegalArgumentException("Momentum must be in [0, 1)");
+        }
+        this.momentum = momentum;
+        this.nesterov = nesterov;
+    }
+
+    public double getMomentum() {
+        return momentum;
+    }
+
+    public boolean isNesterov() {
+        return nesterov;
+    }
+
+    @Override
+    protected void allocate(int size) {
+        velocity = new double[size];
+    }
+
+    @Override
+    protected void update(double[] weights, double[] gradients, double rate, long step) {
+        double[] v = velocity;
+        if (nesterov) {
+            for (int i = 0; i < weights.length; i++) {
+                double g = rate * gradients[i];
+                v[i] = momentum * v[i] + g;
+                weights[i] += momentum * v[i] + g;
+            }
+        } else {
+            for (int i = 0; i < weights.length; i++) {
+                v[i] = momentum * v[i] + rate * gradients[i];
+                weights[i] += v[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.optimizer;
+
+/**
+ * Rule that turns gradients into weight updates.
+ * <p>
+ * Gradients follow the convention of
+ * {@link neuralnetwork.engine.CompiledNetwork#accumulateGradients}: the
+ * gradient of a weight is <code>error * input</code>, the direction that
+ * lowers the loss, so plain gradient descent is
+ * <code>weight += rate * gradient</code>.
+ * <p>
+ * Per-weight state such as velocities or moment estimates is kept in
+ * <code>double[]</code> arrays laid out like the weight array passed to
+ * {@link #step}, allocated on the first step. One optimizer therefore
+ * belongs to one weight array; it is not thread-safe.
+ *
+ * @author Николай
+ */
+public abstract class Optimizer {
+
+    private final LearningRateSchedule schedule;
+    private long steps;
+    private int size = -1;
+
+    protected Optimizer(LearningRateSchedule schedule) {
+        if (schedule == null) {
+            throw new IllegalArgumentException("Learning rate schedule is null");
+        }
+        this.schedule = schedule;
+    }
+
+    public LearningRateSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Number of steps taken since creation or the last {@link #reset()}.
+     */
+    public long getStepCount() {
+        return steps;
+    }
+
+    /**
+     * Learning rate of the next step.
+     */
+    public double getLearningRate() {
+        return schedule.getRate(steps);
+    }
+
+    /**
+     * Moves every weight once using its gradient.
+     *
+     * @param weights weights to update in place
+     * @param gradients gradients laid out like <code>weights</code>
+     */
+    public void step(double[] weights, double[] gradients) {
+        if (gradients.length != weights.length) {
+            throw new IllegalArgumentException("Gradient buffer does not match the weights");
+        }
+        if (size != weights.length) {
+            if (size >= 0) {
+                throw new IllegalArgumentException("Optimizer state holds " + size + " weights, not " + weights.length);
+            }
+            allocate(weights.length);
+            size = weights.length;
+        }
+        double rate = schedule.getRate(steps);
+        steps++;
+        update(weights, gradients, rate, steps);
+    }
+
+    /**
+     * Forgets the state and the step count, so the optimizer can start over
+     * on another weight array.
+     */
+    public void reset() {
+        steps = 0;
+        size = -1;
+    }
+
+    /**
+     * Allocates zeroed state for <code>size</code> weights.
+     */
+    protected abstract void allocate(int size);
+
+    /**
+     * Applies one update.
+     *
+     * @param rate learning rate of this step
+     * @param step number of this step, starting at 1
+     */
+    protected abstract void update(double[] weights, double[] gradients, double rate, long step);
+}
@@ -0,0 +1,61 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.optimizer;
+
+/**
+ * RMSProp: every weight gets its own step size, the rate divided by a
+ * running root mean square of its gradients.
+ * <code>mean = decay * mean + (1 - decay) * gradient^2</code>, then
+ * <code>weight += rate * gradient / (sqrt(mean) + epsilon)</code>.
+ *
+ * @author Николай
+ */
+public class RMSPropOptimizer extends Optimizer {
+
+    public static final double DEFAULT_DECAY = 0.9;
+    public static final double DEFAULT_EPSILON = 1e-8;
+
+    private final double decay;
+    private final double epsilon;
+    private double[] meanSquares;
+
+    public RMSPropOptimizer(double learningRate) {
+        this(LearningRateSchedule.constant(learningRate), DEFAULT_DECAY, DEFAULT_EPSILON);
+    }
+
+    public RMSPropOptimizer(LearningRateSchedule schedule, double decay, double epsilon) {
+        super(schedule);
+        if (decay < 0 || decay >= 1) {
+            throw new IllegalArgumentException("Decay must be in [0, 1)");
+        }
+        this.decay = decay;
+        this.epsilon = epsilon;
+    }
+
+    public double getDecay() {
+        return decay;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    @Override
+    protected void allocate(int size) {
+        meanSquares = new double[size];
+    }
+
+    @Override
+    protected void update(double[] weights, double[] gradients, double rate, long step) {
+        double[] s = meanSquares;
+        double keep = 1 - decay;
+        for (int i = 0; i < weights.length; i++) {
+            double g = gradients[i];
+            s[i] = decay * s[i] + keep * g * g;
+            weights[i] += rate * g / (Math.sqrt(s[i]) + epsilon);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package neuralnetwork.optimizer;
+
+/**
+ * Plain gradient descent, <code>weight += rate * gradient</code>. Has no
+ * state.
+ *
+ * @author Николай
+ */
+public class SgdOptimizer extends Optimizer {
+
+    public SgdOptimizer(double learningRate) {
+        this(LearningRateSchedule.constant(learningRate));
+    }
+
+    public SgdOptimizer(LearningRateSchedule schedule) {
+        super(schedule);
+    }
+
+    @Override
+    protected void allocate(int size) {
+    }
+
+    @Override
+    protected void update(double[] weights, double[] gradients, double rate, long step) {
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] += rate * gradients[i];
+        }
+    }
+}
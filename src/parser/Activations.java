@@ -0,0 +1,89 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import neuralnetwork.activation.ActivationFunction;
+import neuralnetwork.activation.FastSigmoidActivationFunction;
+import neuralnetwork.activation.FastTanhActivationFunction;
+import neuralnetwork.activation.LinearActivationFunction;
+import neuralnetwork.activation.ReLUActivationFunction;
+import neuralnetwork.activation.SigmoidActivationFunction;
+import neuralnetwork.activation.TanhActivationFunction;
+
+/**
+ * The activation functions model files can store, by id (binary models) or
+ * by class name (XML).
+ *
+ * @author Николай
+ */
+final class Activations {
+
+    /**
+     * Classes by id; ids are stored in files, so new functions only go at
+     * the end.
+     */
+    private static final Class<?>[] CLASSES = {
+        SigmoidActivationFunction.class,
+        LinearActivationFunction.class,
+        ReLUActivationFunction.class,
+        TanhActivationFunction.class,
+        FastSigmoidActivationFunction.class,
+        FastTanhActivationFunction.class
+    };
+
+    private Activations() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if the function cannot be stored
+     */
+    static int idOf(ActivationFunction function) {
+        for (int id = 0; id < CLASSES.length; id++) {
+            if (CLASSES[id] == function.getClass()) {
+                return id;
+            }
+        }
+        throw new IllegalArgumentException("No model id for " + function.getClass().getName());
+    }
+
+    static String nameOf(ActivationFunction function) {
+        return CLASSES[idOf(function)].getSimpleName();
+    }
+
+    /**
+     * @throws CsvParserException for an unknown id
+     */
+    static ActivationFunction create(int id) {
+        switch (id) {
+            case 0:
+                return new SigmoidActivationFunction();
+            case 1:
+                return new LinearActivationFunction();
+            case 2:
+                return new ReLUActivationFunction();
+            case 3:
+                return new TanhActivationFunction();
+            case 4:
+                return new FastSigmoidActivationFunction();
+            case 5:
+                return new FastTanhActivationFunction();
+            default:
+                throw new CsvParserException("Unknown activation function id " + id);
+        }
+    }
+
+    /**
+     * @throws CsvParserException for an unknown name
+     */
+    static ActivationFunction forName(String name) {
+        for (int id = 0; id < CLASSES.length; id++) {
+            if (CLASSES[id].getSimpleName().equals(name)) {
+                return create(id);
+            }
+        }
+        throw new CsvParserException("Unknown activation function " + name);
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Saving through a temporary file: the writers fill
+ * <code>path + ".tmp"</code>, force it to disk and rename it over
+ * <code>path</code>, so the target is always either the previous file or the
+ * complete new one.
+ *
+ * @author Николай
+ */
+final class AtomicFiles {
+
+    private AtomicFiles() {
+    }
+
+    static Path temp(String path) {
+        return Paths.get(path + ".tmp");
+    }
+
+    /**
+     * Moves a finished temporary file over the target.
+     */
+    static void replace(Path temp, String path) throws IOException {
+        Path target = Paths.get(path);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
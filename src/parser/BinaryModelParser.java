@@ -0,0 +1,310 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+import neuralnetwork.NeuralNetwork;
+import neuralnetwork.activation.ActivationFunction;
+import neuralnetwork.engine.CompiledNetwork;
+import neuralnetwork.engine.Precision;
+import neuralnetwork.monitor.ModelLoadEvent;
+import neuralnetwork.monitor.ModelSaveEvent;
+import neuralnetwork.neuron.Neuron;
+import neuralnetwork.neuron.NeuronsList;
+
+/**
+ * Binary model file of a layered network, loaded through a memory map.
+ * <p>
+ * All values are little-endian.
+ * <pre>
+ * offset  size  header
+ *      0     4  magic "NNMD"
+ *      4     4  version
+ *      8     4  layer count L
+ *     12     4  precision (ordinal of {@link Precision})
+ *     16     4  bytes per weight, 8 (float64) or 4 (float32)
+ *     20     4  CRC32C of everything after the header
+ *     24     8  weight count
+ *     32  8*L   size and activation id of every layer
+ * </pre>
+ * The weight blocks of layers 1 to L-1 follow, each in the layout of
+ * {@link CompiledNetwork#getWeights()}: row <code>o</code> holds the weights
+ * from every neuron of the previous layer to neuron <code>o</code>. Networks
+ * of reduced precision store float32 weights, which hold float32 and
+ * bfloat16 values exactly.
+ * <p>
+ * {@link #read} builds the neurons of every layer, compiles the network and
+ * copies the weight blocks into the engine's weight array. For inference
+ * only, {@link #readCompiled} skips the neurons and returns the engine
+ * alone, which is much faster on large models.
+ *
+ * @author Николай
+ */
+public class BinaryModelParser implements NetworkParser {
+
+    public static final String EXTENSION = ".nnm";
+
+    /**
+     * Format name in model load and save events.
+     */
+    private static final String FORMAT = "nnm";
+
+    private static final int MAGIC = 0x444D4E4E; // "NNMD" read little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final String path;
+
+    public BinaryModelParser(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public NeuralNetwork getNetwork() {
+        try {
+            return read(path);
+        } catch (IOException ex) {
+            Logger.getLogger(BinaryModelParser.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+    }
+
+    @Override
+    public void setNetwork(NeuralNetwork nn) {
+        try {
+            write(nn, path);
+        } catch (IOException ex) {
+            Logger.getLogger(BinaryModelParser.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Loads a model file.
+     *
+     * @throws CsvParserException if the file is not a valid model file
+     */
+    public static NeuralNetwork read(String path) throws IOException {
+        ModelLoadEvent event = new ModelLoadEvent();
+        event.begin();
+        Model model = load(path);
+        NeuralNetwork network = build(model.sizes, model.functions);
+        double[] weights = network.compile().getWeights();
+        System.arraycopy(model.weights, 0, weights, 0, weights.length);
+        network.setPrecision(model.precision);
+        event.finish(FORMAT, path);
+        return network;
+    }
+
+    /**
+     * Loads a model file as an engine without neurons, for inference only.
+     *
+     * @throws CsvParserException if the file is not a valid model file
+     */
+    public static CompiledNetwork readCompiled(String path) throws IOException {
+        ModelLoadEvent event = new ModelLoadEvent();
+        event.begin();
+        Model model = load(path);
+        CompiledNetwork network = new CompiledNetwork(model.sizes, model.functions, model.weights);
+        event.finish(FORMAT, path);
+        return network;
+    }
+
+    private static Model load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new CsvParserException("Model file is truncated");
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new CsvParserException("Model file is too large");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (map.getInt(0) != MAGIC) {
+                throw new CsvParserException("Not a model file");
+            }
+            if (map.getInt(4) != VERSION) {
+                throw new CsvParserException("Unsupported model version " + map.getInt(4));
+            }
+            int nLayers = map.getInt(8);
+            int precisionId = map.getInt(12);
+            int weightBytes = map.getInt(16);
+            long count = map.getLong(24);
+            if (nLayers < 2 || nLayers > (length - HEADER_SIZE) / 8
+                    || precisionId < 0 || precisionId >= Precision.values().length
+                    || weightBytes != 8 && weightBytes != 4 || count < 0) {
+                throw new CsvParserException("Corrupt model header");
+            }
+            int weightsAt = HEADER_SIZE + 8 * nLayers;
+            if (length != weightsAt + count * weightBytes) {
+                throw new CsvParserException("Model file is truncated");
+            }
+
+            CRC32C crc = new CRC32C();
+            crc.update(map.slice(HEADER_SIZE, (int) length - HEADER_SIZE));
+            if ((int) crc.getValue() != map.getInt(20)) {
+                throw new CsvParserException("Model checksum does not match");
+            }
+
+            int[] sizes = new int[nLayers];
+            ActivationFunction[] functions = new ActivationFunction[nLayers];
+            long expected = 0;
+            for (int l = 0; l < nLayers; l++) {
+                sizes[l] = map.getInt(HEADER_SIZE + 8 * l);
+                functions[l] = Activations.create(map.getInt(HEADER_SIZE + 8 * l + 4));
+                if (sizes[l] <= 0) {
+                    throw new CsvParserException("Layer " + l + " is empty");
+                }
+                if (l > 0) {
+                    expected += (long) sizes[l] * sizes[l - 1];
+                }
+            }
+            if (expected != count) {
+                throw new CsvParserException("Model has " + count + " weights instead of " + expected);
+            }
+
+            double[] weights = new double[(int) count];
+            ByteBuffer block = map.slice(weightsAt, (int) (count * weightBytes)).order(ByteOrder.LITTLE_ENDIAN);
+            if (weightBytes == 8) {
+                block.asDoubleBuffer().get(weights);
+            } else {
+                FloatBuffer floats = block.asFloatBuffer();
+                for (int i = 0; i < weights.length; i++) {
+                    weights[i] = floats.get(i);
+                }
+            }
+            return new Model(sizes, functions, weights, Precision.values()[precisionId]);
+        }
+    }
+
+    /**
+     * Saves a layered network. The file is written to
+     * <code>path + ".tmp"</code> and renamed over <code>path</code> once it is
+     * on disk, so a failed save keeps the previous model.
+     *
+     * @throws IllegalArgumentException if the network cannot be compiled or
+     * uses an activation function without an id
+     */
+    public static void write(NeuralNetwork network, String path) throws IOException {
+        ModelSaveEvent event = new ModelSaveEvent();
+        event.begin();
+        CompiledNetwork engine = network.compile();
+        int nLayers = engine.getLayerCount();
+        Precision precision = network.getPrecision();
+        int weightBytes = precision == Precision.DOUBLE ? 8 : 4;
+        double[] weights = engine.getWeights();
+
+        int weightsAt = HEADER_SIZE + 8 * nLayers;
+        long length = weightsAt + (long) weights.length * weightBytes;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Network is too large for the model format");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, nLayers);
+        buffer.putInt(12, precision.ordinal());
+        buffer.putInt(16, weightBytes);
+        buffer.putLong(24, weights.length);
+        for (int l = 0; l < nLayers; l++) {
+            ActivationFunction function = l == 0
+                    ? network.inputNeurons.get(0).getActivationFunction()
+                    : engine.getActivationFunction(l);
+            buffer.putInt(HEADER_SIZE + 8 * l, engine.getLayerSize(l));
+            buffer.putInt(HEADER_SIZE + 8 * l + 4, Activations.idOf(function));
+        }
+        ByteBuffer block = buffer.slice(weightsAt, (int) length - weightsAt).order(ByteOrder.LITTLE_ENDIAN);
+        if (weightBytes == 8) {
+            block.asDoubleBuffer().put(weights);
+        } else {
+            FloatBuffer floats = block.asFloatBuffer();
+            for (int i = 0; i < weights.length; i++) {
+                floats.put(i, (float) weights[i]);
+            }
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(HEADER_SIZE, (int) length - HEADER_SIZE));
+        buffer.putInt(20, (int) crc.getValue());
+
+        Path temp = AtomicFiles.temp(path);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            AtomicFiles.replace(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        event.finish(FORMAT, path);
+    }
+
+    /**
+     * Contents of a model file.
+     */
+    private static class Model {
+
+        final int[] sizes;
+        final ActivationFunction[] functions;
+        final double[] weights;
+        final Precision precision;
+
+        Model(int[] sizes, ActivationFunction[] functions, double[] weights, Precision precision) {
+            this.sizes = sizes;
+            this.functions = functions;
+            this.weights = weights;
+            this.precision = precision;
+        }
+    }
+
+    /**
+     * Fully connected layers of new neurons with zero weights.
+     */
+    private static NeuralNetwork build(int[] sizes, ActivationFunction[] functions) {
+        NeuralNetwork network = new NeuralNetwork();
+        NeuronsList previous = new NeuronsList();
+        for (int i = 0; i < sizes[0]; i++) {
+            Neuron neuron = new Neuron(functions[0]);
+            network.addInputNeuron(neuron);
+            previous.add(neuron);
+        }
+        int last = sizes.length - 1;
+        for (int l = 1; l <= last; l++) {
+            NeuronsList layer = new NeuronsList();
+            for (int o = 0; o < sizes[l]; o++) {
+                Neuron neuron = new Neuron(functions[l]);
+                for (Neuron p : previous) {
+                    Neuron.connect(p, neuron, 0.0);
+                }
+                if (l == last) {
+                    network.addOutputNeuron(neuron);
+                } else {
+                    network.addHiddenNeuron(neuron);
+                }
+                layer.add(neuron);
+            }
+            previous = layer;
+        }
+        return network;
+    }
+}
@@ -5,7 +5,11 @@
  */
 package parser;
 
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import neuralnetwork.NeuralNetwork;
+import neuralnetwork.engine.Precision;
 
 /**
  *
@@ -14,21 +18,38 @@ import neuralnetwork.NeuralNetwork;
 public class CsvParser implements NetworkParser {
 
     private final String path;
+    private final Precision precision;
 
     public CsvParser(String path) {
+        this(path, Precision.DOUBLE);
+    }
+
+    /**
+     * Parser whose loaded networks are converted to the given storage
+     * precision. Saving always uses the precision of the saved network.
+     */
+    public CsvParser(String path, Precision precision) {
         this.path = path;
+        this.precision = precision;
     }
 
     @Override
     public NeuralNetwork getNetwork() {
          CsvReader cp = new CsvReader();
-         return cp.parseAsNetwork(path);
+         NeuralNetwork nn = cp.parseAsNetwork(path);
+         if (nn != null) {
+             nn.setPrecision(precision);
+         }
+         return nn;
     }
 
     @Override
     public void setNetwork(NeuralNetwork nn) {
-        CsvWriter cw = new CsvWriter(path);
-        cw.write(nn);
+        try (CsvWriter cw = new CsvWriter(path)) {
+            cw.write(nn);
+        } catch (IOException ex) {
+            Logger.getLogger(CsvParser.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     
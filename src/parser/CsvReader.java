@@ -1,13 +1,8 @@
 package parser;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
@@ -17,7 +12,8 @@ import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import neuralnetwork.NeuralNetwork;
-import neuralnetwork.ValuesList;
+import neuralnetwork.monitor.ModelLoadEvent;
+import neuralnetwork.neuron.Neuron;
 
 /**
  * CSV format parser.
@@ -70,77 +66,68 @@ public class CsvReader {
     }
 
     /**
-     * Parse CSV file as a set of {@link Map}s. Note that the first line is
-     * required to be the header. Header is parsed automatically, in order to
-     * know map keys.
-     * <p>
-     * Don't forget to close the reader when it is no longer needed.
+     * Parse a network saved by {@link CsvWriter}: the line
+     * <code>inputs,hidden,outputs</code>, then the weights from every input
+     * neuron to the hidden ones and the weights from the hidden neurons to
+     * every output neuron, one neuron per line. Rows are read by the numeric
+     * {@link CsvRowReader}.
      *
      * @param path
-     * @return
+     * @return the network, or <code>null</code> if the file cannot be read
      */
     public NeuralNetwork parseAsNetwork(String path) {
-        NeuralNetwork network = null;
-        BufferedReader r = null;
-        try {
-            File file = new File(path);
-            r = new BufferedReader(new FileReader(file));
-            Scanner scanner = new Scanner(r);
-
-            List<String> list = parseNextLine(scanner);
-            if (list.size() != 3) {
+        ModelLoadEvent event = new ModelLoadEvent();
+        event.begin();
+        try (CsvRowReader r = new CsvRowReader(new FileReader(path), fieldSep)) {
+            double[] header = new double[3];
+            if (r.readRow(header) != 3) {
                 throw new IllegalArgumentException("Недостаточно аргументов для создание нейросети. Необходимо три параметра.");
             }
-            int in = Integer.parseInt(list.get(0));
-            int out = Integer.parseInt(list.get(2));
-            int midd = Integer.parseInt(list.get(1));
-            network = new NeuralNetwork(in, out, midd);
-            parseNextLine(scanner);
-            List<ValuesList> valuesList = new ArrayList<>();
-
-            for (int i = 0; i < in; i++) {
-                list = parseNextLine(scanner);
-                if (list.get(i).equals("")) {
-                    throw new NumberFormatException("Не верный формат весов");
-                }
-                ValuesList vl = new ValuesList();
-
-                for (String string : list) {
-                    vl.add(Double.parseDouble(string));
+            int in = (int) header[0];
+            int midd = (int) header[1];
+            int out = (int) header[2];
+            NeuralNetwork network = new NeuralNetwork(in, out, midd);
+
+            double[] row = new double[midd];
+            for (Neuron neuron : network.inputNeurons) {
+                readWeights(r, row);
+                for (int j = 0; j < midd; j++) {
+                    neuron.getOutputsSynapse().get(j).setWeight(row[j]);
                 }
-                valuesList.add(vl);
             }
-            network.setInputWeight(valuesList);
-
-            parseNextLine(scanner);
-            valuesList = new ArrayList<>();
-
-            for (int i = 0; i < out; i++) {
-                list = parseNextLine(scanner);
-                if (list.get(i).equals("")) {
-                    throw new NumberFormatException("Не верный формат весов");
-                }
-                ValuesList vl = new ValuesList();
-
-                for (String string : list) {
-                    vl.add(Double.parseDouble(string));
+            for (Neuron neuron : network.outputNeurons) {
+                readWeights(r, row);
+                for (int j = 0; j < midd; j++) {
+                    neuron.getInputsSynapse().get(j).setWeight(row[j]);
                 }
-                valuesList.add(vl);
             }
-            network.setOutputWeight(valuesList);
-
+            event.finish("csv", path);
+            return network;
         } catch (IOException ex) {
             Logger.getLogger(CsvReader.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            try {
-                r.close();
-            } catch (IOException ex) {
-                Logger.getLogger(CsvReader.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            return network;
+            return null;
+        }
+    }
+
+    private static void readWeights(CsvRowReader r, double[] row) throws IOException {
+        if (r.readRow(row) != row.length) {
+            throw new NumberFormatException("Не верный формат весов");
         }
     }
 
+    /**
+     * Parse numeric CSV rows straight into <code>double[]</code>s, without
+     * quoting support.
+     * <p>
+     * Don't forget to close the reader when it is no longer needed.
+     *
+     * @param reader
+     * @return
+     */
+    public CsvRowReader parseAsRows(Reader reader) {
+        return new CsvRowReader(reader, fieldSep);
+    }
+
     /**
      * Parse CSV file as a set of {@link List}s. Note that the first line could
      * be a header.
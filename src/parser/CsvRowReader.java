@@ -0,0 +1,230 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import neuralnetwork.BinaryVector;
+
+/**
+ * Fast reader of numeric CSV rows, for weight and training files.
+ * <p>
+ * Lines are scanned in place in one reusable <code>char[]</code> buffer and
+ * every field is parsed by {@link DecimalParser} straight into the caller's
+ * <code>double[]</code>, so reading a row allocates nothing. The buffer grows
+ * to hold the longest line.
+ * <p>
+ * Blank lines are skipped, as are spaces around values and empty fields at
+ * the end of a line. Quoted fields are not supported; use
+ * {@link CsvReader#parseAsLists} for general CSV.
+ *
+ * @author Николай
+ */
+public class CsvRowReader implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final char fieldSep;
+
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    private long lineNumber;
+    private int lineStart;
+    private int lineEnd;
+
+    public CsvRowReader(Reader reader) {
+        this(reader, CsvReader.FIELD_SEP_COMMA);
+    }
+
+    public CsvRowReader(Reader reader, char fieldSeparator) {
+        this.reader = reader;
+        this.fieldSep = fieldSeparator;
+        this.buffer = new char[DEFAULT_BUFFER_SIZE];
+    }
+
+    public char getFieldSeparator() {
+        return fieldSep;
+    }
+
+    /**
+     * Number of the line last read, starting at 1, for error messages.
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    public int readRow(double[] row) throws IOException, NumberFormatException {
+        return readRow(row, 0, row.length);
+    }
+
+    /**
+     * Reads the next non-blank line into <code>row</code>.
+     *
+     * @return the number of values on the line, or -1 at the end of the
+     * input. Values beyond <code>length</code> are counted but not stored.
+     * @throws NumberFormatException if a stored value is not a number
+     */
+    public int readRow(double[] row, int offset, int length) throws IOException, NumberFormatException {
+        if (!nextLine()) {
+            return -1;
+        }
+        char[] b = buffer;
+        int end = lineEnd;
+        while (end > lineStart && (b[end - 1] == fieldSep || b[end - 1] <= ' ')) {
+            end--;
+        }
+
+        int count = 0;
+        int start = lineStart;
+        while (true) {
+            int stop = start;
+            while (stop < end && b[stop] != fieldSep) {
+                stop++;
+            }
+            if (count < length) {
+                int from = start;
+                int to = stop;
+                while (from < to && b[from] <= ' ') {
+                    from++;
+                }
+                while (to > from && b[to - 1] <= ' ') {
+                    to--;
+                }
+                row[offset + count] = DecimalParser.parse(b, from, to);
+            }
+            count++;
+            if (stop >= end) {
+                return count;
+            }
+            start = stop + 1;
+        }
+    }
+
+    /**
+     * Reads the next non-blank line of '0'/'1' characters into
+     * <code>bits</code>. The line is only stored if it fits the vector.
+     *
+     * @return the number of characters on the line, or -1 at the end of the
+     * input
+     * @throws NumberFormatException if a stored character is not a binary
+     * digit
+     */
+    public int readBits(BinaryVector bits) throws IOException, NumberFormatException {
+        if (!nextLine()) {
+            return -1;
+        }
+        int length = lineEnd - lineStart;
+        if (length <= bits.size()) {
+            long[] words = bits.getWords();
+            char[] b = buffer;
+            // branch-free: any character other than '0'/'1' sets a bit above the lowest one
+            int digits = 0;
+            for (int w = 0, i = 0; w < words.length; w++) {
+                long word = 0;
+                for (int end = Math.min(i + 64, length), shift = 0; i < end; i++, shift++) {
+                    int d = b[lineStart + i] - '0';
+                    digits |= d;
+                    word |= (long) d << shift;
+                }
+                words[w] = word;
+            }
+            if ((digits & ~1) != 0) {
+                for (int i = lineStart; i < lineEnd; i++) {
+                    if (buffer[i] != '0' && buffer[i] != '1') {
+                        throw new NumberFormatException("Not a binary digit: '" + buffer[i] + "'");
+                    }
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Moves to the next non-blank line and sets <code>lineStart</code> and
+     * <code>lineEnd</code> to its trimmed content.
+     *
+     * @return <code>false</code> at the end of the input
+     */
+    private boolean nextLine() throws IOException {
+        while (true) {
+            int scanned = 0;
+            int end;
+            while (true) {
+                end = -1;
+                for (int i = position + scanned; i < limit; i++) {
+                    char c = buffer[i];
+                    if (c == '\n' || c == '\r') {
+                        end = i;
+                        break;
+                    }
+                }
+                // a CR at the end of the buffer may be followed by an LF
+                if (end >= 0 && (buffer[end] == '\n' || end + 1 < limit || eof)) {
+                    break;
+                }
+                if (end < 0 && eof) {
+                    end = limit;
+                    break;
+                }
+                scanned = (end >= 0 ? end : limit) - position;
+                fill();
+            }
+            if (end == position && position == limit) {
+                return false;
+            }
+
+            lineNumber++;
+            int start = position;
+            position = end;
+            if (position < limit) {
+                position += buffer[position] == '\r' && position + 1 < limit && buffer[position + 1] == '\n' ? 2 : 1;
+            }
+            while (start < end && buffer[start] <= ' ') {
+                start++;
+            }
+            while (end > start && buffer[end - 1] <= ' ') {
+                end--;
+            }
+            if (start < end) {
+                lineStart = start;
+                lineEnd = end;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves the unread characters to the start of the buffer, grows it if
+     * they fill it and reads more.
+     */
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int n = reader.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -1,15 +1,22 @@
 package parser;
 
-import java.io.BufferedWriter;
 import java.io.Closeable;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import neuralnetwork.NeuralNetwork;
+import neuralnetwork.engine.Precision;
+import neuralnetwork.monitor.ModelSaveEvent;
 import neuralnetwork.neuron.Neuron;
+import neuralnetwork.neuron.Synapse;
 
 /**
  * CSV format writer.
@@ -30,7 +37,8 @@ public class CsvWriter implements Closeable {
     public static final String EOL_LF = "\n";
     public static final String EOL_CRLF = "\r\n";
 
-    private final StringBuilder writer = new StringBuilder();
+    public static final int BUFFER_SIZE = 1 << 16;
+
     private final String path;
     private final char fieldSep;
     private final char quoteChar;
@@ -41,6 +49,15 @@ public class CsvWriter implements Closeable {
     private final String doubleQuoteCharStr;
     private final String quoteCharPattern;
 
+    private final byte[] fieldSepBytes;
+    private final byte[] lineSepBytes;
+
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int count;
+    private Path temp;
+    private FileChannel channel;
+
     public CsvWriter(String path) {
         this(path, FIELD_SEP_COMMA, QUOTE_DOUBLE, EOL_CRLF);
     }
@@ -59,6 +76,10 @@ public class CsvWriter implements Closeable {
         this.quoteCharStr = String.valueOf(quoteChar);
         this.doubleQuoteCharStr = quoteChar + "" + quoteChar;
         this.quoteCharPattern = "\\" + quoteChar;
+
+        Charset charset = Charset.defaultCharset();
+        this.fieldSepBytes = fieldSepStr.getBytes(charset);
+        this.lineSepBytes = lineSeparator.getBytes(charset);
     }
 
     public char getFieldSeparator() {
@@ -74,79 +95,148 @@ public class CsvWriter implements Closeable {
     }
 
     /**
-     * Close underlying writer.
+     * Deletes the temporary file of a write that did not finish and releases
+     * the buffer.
      */
     @Override
     public void close() throws IOException {
-        //writer.close();
+        discard();
+        buffer = null;
+        view = null;
     }
 
     /**
      * Write row of values as CSV.
+     * <p>
+     * The text is streamed through a small reusable buffer into
+     * <code>path + ".tmp"</code>, which then replaces <code>path</code> with
+     * an atomic rename: the file is always either the previous one or the
+     * complete new one. Weights are written with the fewest digits that read
+     * back as the same value in the precision of the network.
      *
      * @param neuralNetwork
      */
     public void write(NeuralNetwork neuralNetwork) {
-
-        String str = String.valueOf(neuralNetwork.inputNeurons.size()) + fieldSep
-                + neuralNetwork.hiddenNeurons.size() + fieldSep
-                + neuralNetwork.outputNeurons.size();
-
-        writer.append(str);
-        writer.append(lineSep);
-        writer.append(lineSep);
-        boolean isFirst = true;
-        for (Neuron value : neuralNetwork.inputNeurons) {
-//            if (!isFirst) {
-//                writer.write(fieldSepStr);
-//            }
-//            isFirst = false;
-
-            if (value != null) {
-
-//                for (Synapse synapse : value.getOutputsSynapse()) {
-//                    writer.append(String.valueOf(synapse.getWeight()));
-//                    writer.append(fieldSep);
-//                    
-//                }
-                for (int i = 0; i < value.getOutputsSynapse().size(); i++) {
-                    writer.append(String.valueOf(value.getOutputsSynapse().get(i).getWeight()));
-                    if (i != value.getOutputsSynapse().size() - 1) {
-                        writer.append(fieldSep);
-                    }
+        Precision precision = neuralNetwork.getPrecision();
+        ModelSaveEvent event = new ModelSaveEvent();
+        event.begin();
+        try {
+            open();
+            writeInt(neuralNetwork.inputNeurons.size());
+            writeBytes(fieldSepBytes);
+            writeInt(neuralNetwork.hiddenNeurons.size());
+            writeBytes(fieldSepBytes);
+            writeInt(neuralNetwork.outputNeurons.size());
+            writeBytes(lineSepBytes);
+            writeBytes(lineSepBytes);
+            for (Neuron value : neuralNetwork.inputNeurons) {
+                if (value != null) {
+                    writeRow(value.getOutputsSynapse(), precision);
                 }
-                writer.append(lineSep);
             }
+            writeBytes(lineSepBytes);
+            for (Neuron neuron : neuralNetwork.outputNeurons) {
+                if (neuron != null) {
+                    writeRow(neuron.getInputsSynapse(), precision);
+                }
+            }
+            writeBytes(lineSepBytes);
+            commit();
+            event.finish("csv", path);
+        } catch (IOException ex) {
+            Logger.getLogger(CsvWriter.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            try {
+                discard();
+            } catch (IOException ex) {
+                Logger.getLogger(CsvWriter.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+    }
 
+    private void writeRow(List<Synapse> synapses, Precision precision) throws IOException {
+        for (int i = 0; i < synapses.size(); i++) {
+            if (i != 0) {
+                writeBytes(fieldSepBytes);
+            }
+            reserve(DecimalFormatter.MAX_LENGTH);
+            double weight = synapses.get(i).getWeight();
+            count = precision == Precision.DOUBLE
+                    ? DecimalFormatter.format(weight, buffer, count)
+                    : DecimalFormatter.format((float) precision.round(weight), buffer, count);
         }
-        writer.append(lineSep);
-        for (Neuron neuron : neuralNetwork.outputNeurons) {
-            if (neuron != null) {
-//                for (Synapse synapse : neuron.getInputsSynapse()) {
-//                    writer.append(String.valueOf(synapse.getWeight()));
-//                    writer.append(fieldSep);
-//                }
-                for (int i = 0; i < neuron.getInputsSynapse().size(); i++) {
-                    writer.append(String.valueOf(neuron.getInputsSynapse().get(i).getWeight()));
-                    if (i != neuron.getInputsSynapse().size() - 1) {
-                        writer.append(fieldSep);
-                    }
-                }
-                writer.append(lineSep);
+        writeBytes(lineSepBytes);
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeBytes(Integer.toString(value).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        reserve(bytes.length);
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Makes room for <code>length</code> more bytes in the buffer.
+     */
+    private void reserve(int length) throws IOException {
+        if (count + length > buffer.length) {
+            flush();
+            if (length > buffer.length) {
+                buffer = new byte[length];
+                view = ByteBuffer.wrap(buffer);
             }
         }
-        writer.append(lineSep);
-        File file = new File(path);
-        PrintWriter printWriter;
-        try {
-            printWriter = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+    }
 
-            printWriter.print(writer.toString());
-            printWriter.flush();
-        } catch (IOException ex) {
-            Logger.getLogger(CsvWriter.class.getName()).log(Level.SEVERE, null, ex);
+    private void flush() throws IOException {
+        view.clear().limit(count);
+        while (view.hasRemaining()) {
+            channel.write(view);
         }
+        count = 0;
+    }
+
+    private void open() throws IOException {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+            view = ByteBuffer.wrap(buffer);
+        }
+        count = 0;
+        temp = AtomicFiles.temp(path);
+        channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
 
+    /**
+     * Makes the temporary file durable and moves it over the target.
+     */
+    private void commit() throws IOException {
+        flush();
+        channel.force(true);
+        channel.close();
+        channel = null;
+        AtomicFiles.replace(temp, path);
+        temp = null;
+    }
+
+    /**
+     * Closes and deletes the temporary file of an unfinished write.
+     */
+    private void discard() throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+                temp = null;
+            }
+        }
     }
 
 }
@@ -0,0 +1,111 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary data set files of {@link DatasetWriter} and
+ * {@link MappedDataset}. All values are little-endian.
+ * <pre>
+ * offset  size  header
+ *      0     4  magic "NNDS"
+ *      4     4  version
+ *      8     8  sample count
+ *     16     4  input width
+ *     20     4  output width
+ *     24     4  input encoding (0 bits, 1 float32)
+ *     28     4  target encoding (0 class index, 1 float32)
+ *     32     4  row stride in bytes
+ *     36    28  reserved, zero
+ * </pre>
+ * Rows of <code>stride</code> bytes follow, each holding the inputs, then
+ * the targets, padded to a multiple of 8 bytes. Bit inputs are 64-bit words
+ * in the layout of {@link neuralnetwork.BinaryVector#getWords()}; a class
+ * index is one int standing for a one-hot target vector.
+ *
+ * @author Николай
+ */
+final class DatasetFormat {
+
+    static final int MAGIC = 0x53444E4E; // "NNDS" read little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    static final int INPUT_BITS = 0;
+    static final int INPUT_FLOAT32 = 1;
+    static final int TARGET_CLASS_INDEX = 0;
+    static final int TARGET_FLOAT32 = 1;
+
+    final long count;
+    final int inputSize;
+    final int outputSize;
+    final int inputEncoding;
+    final int targetEncoding;
+    final int stride;
+    /**
+     * Offset of the targets inside a row.
+     */
+    final int targetOffset;
+
+    DatasetFormat(long count, int inputSize, int outputSize, int inputEncoding, int targetEncoding) {
+        if (inputSize <= 0 || outputSize <= 0) {
+            throw new IllegalArgumentException("Data set sizes must be positive");
+        }
+        this.count = count;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.inputEncoding = inputEncoding;
+        this.targetEncoding = targetEncoding;
+        targetOffset = align(inputEncoding == INPUT_BITS ? 8 * ((inputSize + 63) >>> 6) : 4 * inputSize);
+        stride = align(targetOffset + (targetEncoding == TARGET_CLASS_INDEX ? 4 : 4 * outputSize));
+    }
+
+    static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+
+    /**
+     * Header of the given file start.
+     */
+    static DatasetFormat read(ByteBuffer header) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != MAGIC) {
+            throw new CsvParserException("Not a data set file");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new CsvParserException("Unsupported data set version " + header.getInt(4));
+        }
+        int inputEncoding = header.getInt(24);
+        int targetEncoding = header.getInt(28);
+        if (inputEncoding != INPUT_BITS && inputEncoding != INPUT_FLOAT32
+                || targetEncoding != TARGET_CLASS_INDEX && targetEncoding != TARGET_FLOAT32) {
+            throw new CsvParserException("Unknown data set encoding");
+        }
+        DatasetFormat format = new DatasetFormat(header.getLong(8), header.getInt(16), header.getInt(20),
+                inputEncoding, targetEncoding);
+        if (header.getInt(32) != format.stride || format.count < 0) {
+            throw new CsvParserException("Corrupt data set header");
+        }
+        return format;
+    }
+
+    void write(ByteBuffer header) {
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < HEADER_SIZE; i++) {
+            header.put(i, (byte) 0);
+        }
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(8, count);
+        header.putInt(16, inputSize);
+        header.putInt(20, outputSize);
+        header.putInt(24, inputEncoding);
+        header.putInt(28, targetEncoding);
+        header.putInt(32, stride);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import neuralnetwork.BinaryVector;
+import neuralnetwork.engine.SampleBatch;
+
+/**
+ * Writes a binary data set file for {@link MappedDataset}, see
+ * {@link DatasetFormat} for the layout. The rows go to
+ * <code>path + ".tmp"</code>; {@link #finish()} fills in the sample count in
+ * the header and renames the file over <code>path</code>. Closing the writer
+ * without finishing deletes the temporary file and leaves <code>path</code>
+ * as it was.
+ * <p>
+ * {@link #convert} turns a <code>train.csv</code> file into this format; the
+ * <code>main</code> method does the same from the command line.
+ *
+ * @author Николай
+ */
+public class DatasetWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final String path;
+    private final Path temp;
+    private final FileChannel channel;
+    private final DatasetFormat format;
+    private final ByteBuffer buffer;
+    private long count;
+    private boolean finished;
+
+    /**
+     * @param binaryInputs store the inputs as bits, otherwise as float32
+     * @param classIndices store one-hot targets as a class index, otherwise
+     * as float32
+     */
+    public DatasetWriter(String path, int inputSize, int outputSize, boolean binaryInputs, boolean classIndices) throws IOException {
+        format = new DatasetFormat(0, inputSize, outputSize,
+                binaryInputs ? DatasetFormat.INPUT_BITS : DatasetFormat.INPUT_FLOAT32,
+                classIndices ? DatasetFormat.TARGET_CLASS_INDEX : DatasetFormat.TARGET_FLOAT32);
+        buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_SIZE, format.stride)).order(ByteOrder.LITTLE_ENDIAN);
+        this.path = path;
+        temp = AtomicFiles.temp(path);
+        channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(DatasetFormat.HEADER_SIZE);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void write(BinaryVector input, double[] target) throws IOException {
+        if (input.size() != format.inputSize) {
+            throw new IllegalArgumentException("Sample " + count + " has " + input.size() + " inputs instead of " + format.inputSize);
+        }
+        int row = startRow(target);
+        if (format.inputEncoding == DatasetFormat.INPUT_BITS) {
+            long[] words = input.getWords();
+            for (int w = 0; w < words.length; w++) {
+                buffer.putLong(row + 8 * w, words[w]);
+            }
+        } else {
+            for (int i = 0; i < format.inputSize; i++) {
+                buffer.putFloat(row + 4 * i, input.get(i) ? 1f : 0f);
+            }
+        }
+        endRow(row, target);
+    }
+
+    public void write(double[] input, double[] target) throws IOException {
+        if (input.length != format.inputSize) {
+            throw new IllegalArgumentException("Sample " + count + " has " + input.length + " inputs instead of " + format.inputSize);
+        }
+        int row = startRow(target);
+        if (format.inputEncoding == DatasetFormat.INPUT_BITS) {
+            for (int w = 0; w < (format.inputSize + 63) >>> 6; w++) {
+                long word = 0L;
+                for (int i = w << 6; i < Math.min((w + 1) << 6, format.inputSize); i++) {
+                    if (input[i] == 1.0) {
+                        word |= 1L << i;
+                    } else if (input[i] != 0.0) {
+                        throw new IllegalArgumentException("Sample " + count + " is not binary");
+                    }
+                }
+                buffer.putLong(row + 8 * w, word);
+            }
+        } else {
+            for (int i = 0; i < format.inputSize; i++) {
+                buffer.putFloat(row + 4 * i, (float) input[i]);
+            }
+        }
+        endRow(row, target);
+    }
+
+    /**
+     * Makes room for one zeroed row and returns its offset in the buffer.
+     */
+    private int startRow(double[] target) throws IOException {
+        if (target.length != format.outputSize) {
+            throw new IllegalArgumentException("Sample " + count + " has " + target.length + " targets instead of " + format.outputSize);
+        }
+        if (buffer.remaining() < format.stride) {
+            flush();
+        }
+        int row = buffer.position();
+        for (int b = 0; b < format.stride; b += 8) {
+            buffer.putLong(row + b, 0L);
+        }
+        return row;
+    }
+
+    private void endRow(int row, double[] target) {
+        int at = row + format.targetOffset;
+        if (format.targetEncoding == DatasetFormat.TARGET_CLASS_INDEX) {
+            int index = classIndex(target);
+            if (index < 0) {
+                throw new IllegalArgumentException("Target of sample " + count + " is not one-hot");
+            }
+            buffer.putInt(at, index);
+        } else {
+            for (int o = 0; o < target.length; o++) {
+                buffer.putFloat(at + 4 * o, (float) target[o]);
+            }
+        }
+        buffer.position(row + format.stride);
+        count++;
+    }
+
+    /**
+     * Index of the single 1 of a one-hot vector, or -1.
+     */
+    static int classIndex(double[] target) {
+        int index = -1;
+        for (int o = 0; o < target.length; o++) {
+            if (target[o] == 1.0 && index < 0) {
+                index = o;
+            } else if (target[o] != 0.0) {
+                return -1;
+            }
+        }
+        return index;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Writes the remaining rows and the header, forces the file to disk and
+     * moves it over the target.
+     */
+    public void finish() throws IOException {
+        flush();
+        DatasetFormat done = new DatasetFormat(count, format.inputSize, format.outputSize,
+                format.inputEncoding, format.targetEncoding);
+        ByteBuffer header = ByteBuffer.allocate(DatasetFormat.HEADER_SIZE);
+        done.write(header);
+        channel.write(header, 0);
+        channel.force(true);
+        channel.close();
+        AtomicFiles.replace(temp, path);
+        finished = true;
+    }
+
+    /**
+     * Deletes the temporary file unless {@link #finish()} succeeded.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            if (!finished) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Converts a training file in the format of {@link TrainSetReader}.
+     * Targets are stored as class indices when all of them are one-hot.
+     *
+     * @return the number of samples written
+     */
+    public static long convert(String trainSetPath, String datasetPath) throws IOException {
+        try (TrainSetSource source = new TrainSetSource(trainSetPath)) {
+            SampleBatch batch = new SampleBatch(256, source.getInputSize(), source.getOutputSize());
+            boolean oneHot = source.getOutputSize() > 1;
+            while (oneHot && source.read(batch) > 0) {
+                for (int s = 0; s < batch.size() && oneHot; s++) {
+                    oneHot = classIndex(batch.getTarget(s)) >= 0;
+                }
+            }
+
+            source.rewind();
+            try (DatasetWriter writer = new DatasetWriter(datasetPath, source.getInputSize(), source.getOutputSize(), true, oneHot)) {
+                while (source.read(batch) > 0) {
+                    for (int s = 0; s < batch.size(); s++) {
+                        writer.write(batch.getInput(s), batch.getTarget(s));
+                    }
+                }
+                writer.finish();
+                return writer.getCount();
+            }
+        }
+    }
+
+    /**
+     * <code>DatasetWriter train.csv train.nnds</code>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: DatasetWriter <train.csv> <dataset>");
+            System.exit(1);
+        }
+        long count = convert(args[0], args[1]);
+        System.out.println(count + " samples written to " + args[1]);
+    }
+}
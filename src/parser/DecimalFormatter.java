@@ -0,0 +1,365 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.math.BigInteger;
+
+/**
+ * Formats doubles and floats as ASCII into a <code>byte[]</code>, with the
+ * shortest decimal that parses back to the same value.
+ * <p>
+ * Digits are picked by the Schubfach algorithm: among the decimals that
+ * round to the value, the ones with the fewest digits are tried and the
+ * closest of them wins. The layout is the one of {@link Double#toString}
+ * (<code>0.001</code> to <code>9999999.0</code> in plain notation, e.g.
+ * <code>1.0E-4</code> outside), so files look as before, but the digits are
+ * never longer than needed, which is not guaranteed by
+ * <code>Double.toString</code> on this JDK.
+ *
+ * @author Николай
+ */
+final class DecimalFormatter {
+
+    /**
+     * Longest formatted value, e.g. <code>-1.2345678901234567E-308</code>.
+     */
+    static final int MAX_LENGTH = 24;
+
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+
+    private static final int DOUBLE_Q_MIN = -1074;
+    private static final long DOUBLE_C_MIN = 1L << 52;
+    private static final int DOUBLE_C_TINY = 3;
+
+    private static final int FLOAT_Q_MIN = -149;
+    private static final int FLOAT_C_MIN = 1 << 23;
+    private static final int FLOAT_C_TINY = 8;
+
+    private static final long MASK_63 = (1L << 63) - 1;
+    private static final long MASK_32 = (1L << 32) - 1;
+
+    /**
+     * <code>g = floor(10^-k * 2^(125 - floor(log2(10^-k)))) + 1</code>, a
+     * 126-bit value split into its high and low 63 bits.
+     */
+    private static final long[] G1 = new long[K_MAX - K_MIN + 1];
+    private static final long[] G0 = new long[K_MAX - K_MIN + 1];
+
+    private static final byte[] NAN = {'N', 'a', 'N'};
+    private static final byte[] INFINITY = {'I', 'n', 'f', 'i', 'n', 'i', 't', 'y'};
+
+    static {
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int shift = 125 - flog2pow10(-k);
+            BigInteger g;
+            if (k <= 0) {
+                BigInteger power = BigInteger.TEN.pow(-k);
+                g = shift >= 0 ? power.shiftLeft(shift) : power.shiftRight(-shift);
+            } else {
+                g = BigInteger.ONE.shiftLeft(shift).divide(BigInteger.TEN.pow(k));
+            }
+            g = g.add(BigInteger.ONE);
+            G1[k - K_MIN] = g.shiftRight(63).longValue();
+            G0[k - K_MIN] = g.longValue() & MASK_63;
+        }
+    }
+
+    private DecimalFormatter() {
+    }
+
+    /**
+     * Writes <code>v</code> at <code>pos</code>, which must leave room for
+     * {@link #MAX_LENGTH} bytes.
+     *
+     * @return the position after the value
+     */
+    static int format(double v, byte[] buf, int pos) {
+        long bits = Double.doubleToRawLongBits(v);
+        long t = bits & DOUBLE_C_MIN - 1;
+        int bq = (int) (bits >>> 52) & 0x7FF;
+        if (bq == 0x7FF) {
+            return special(t != 0, bits < 0, buf, pos);
+        }
+        if (bits < 0) {
+            buf[pos++] = '-';
+        }
+        if (bq != 0) {
+            int mq = -DOUBLE_Q_MIN + 1 - bq;
+            long c = DOUBLE_C_MIN | t;
+            if (0 < mq && mq < 53) {
+                // integers are their own shortest decimal
+                long f = c >> mq;
+                if (f << mq == c) {
+                    return toChars(f, 0, buf, pos);
+                }
+            }
+            return toDecimal(-mq, c, 0, buf, pos);
+        }
+        if (t != 0) {
+            return t < DOUBLE_C_TINY
+                    ? toDecimal(DOUBLE_Q_MIN, 10 * t, -1, buf, pos)
+                    : toDecimal(DOUBLE_Q_MIN, t, 0, buf, pos);
+        }
+        return zero(buf, pos);
+    }
+
+    /**
+     * Same as {@link #format(double, byte[], int)} with the shortest decimal
+     * that parses back to the same float.
+     */
+    static int format(float v, byte[] buf, int pos) {
+        int bits = Float.floatToRawIntBits(v);
+        int t = bits & FLOAT_C_MIN - 1;
+        int bq = (bits >>> 23) & 0xFF;
+        if (bq == 0xFF) {
+            return special(t != 0, bits < 0, buf, pos);
+        }
+        if (bits < 0) {
+            buf[pos++] = '-';
+        }
+        if (bq != 0) {
+            int mq = -FLOAT_Q_MIN + 1 - bq;
+            int c = FLOAT_C_MIN | t;
+            if (0 < mq && mq < 24) {
+                int f = c >> mq;
+                if (f << mq == c) {
+                    return toChars(f, 0, buf, pos);
+                }
+            }
+            return toDecimal(-mq, c, 0, buf, pos);
+        }
+        if (t != 0) {
+            return t < FLOAT_C_TINY
+                    ? toDecimal(FLOAT_Q_MIN, 10 * t, -1, buf, pos)
+                    : toDecimal(FLOAT_Q_MIN, t, 0, buf, pos);
+        }
+        return zero(buf, pos);
+    }
+
+    /**
+     * Shortest decimal in the rounding interval of <code>c * 2^q</code>.
+     */
+    private static int toDecimal(int q, long c, int dk, byte[] buf, int pos) {
+        int out = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != DOUBLE_C_MIN || q == DOUBLE_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            // the interval is narrower below a power of two
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 2;
+
+        long g1 = G1[k - K_MIN];
+        long g0 = G0[k - K_MIN];
+        long vb = rop(g1, g0, cb << h);
+        long vbl = rop(g1, g0, cbl << h);
+        long vbr = rop(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        if (s >= 100) {
+            // one digit less, if the interval holds a multiple of ten
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return toChars(upin ? sp10 : tp10, k, buf, pos);
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return toChars(uin ? s : t, k + dk, buf, pos);
+        }
+        long cmp = vb - (s + t << 1);
+        return toChars(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, buf, pos);
+    }
+
+    private static int toDecimal(int q, int c, int dk, byte[] buf, int pos) {
+        int out = c & 1;
+        long cb = (long) c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        if (c != FLOAT_C_MIN || q == FLOAT_Q_MIN) {
+            cbl = cb - 2;
+            k = flog10pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = flog10threeQuartersPow2(q);
+        }
+        int h = q + flog2pow10(-k) + 33;
+
+        long g = G1[k - K_MIN] + 1;
+        int vb = rop(g, cb << h);
+        int vbl = rop(g, cbl << h);
+        int vbr = rop(g, cbr << h);
+
+        int s = vb >> 2;
+        if (s >= 100) {
+            int sp10 = 10 * (int) (s * 1_717_986_919L >>> 34);
+            int tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                return toChars(upin ? sp10 : tp10, k, buf, pos);
+            }
+        }
+        int t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            return toChars(uin ? s : t, k + dk, buf, pos);
+        }
+        int cmp = vb - (s + t << 1);
+        return toChars(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k + dk, buf, pos);
+    }
+
+    /**
+     * Rounds to odd the product of <code>g</code> and <code>cp</code>,
+     * scaled down by 2^127.
+     */
+    private static long rop(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+    }
+
+    private static int rop(long g, long cp) {
+        long x1 = Math.multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int) (vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+    }
+
+    /**
+     * <code>floor(log10(2^e))</code>
+     */
+    private static int flog10pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    /**
+     * <code>floor(log10(3/4 * 2^e))</code>
+     */
+    private static int flog10threeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L + -274_743_187_321L >> 41);
+    }
+
+    /**
+     * <code>floor(log2(10^e))</code>
+     */
+    private static int flog2pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+
+    /**
+     * Writes <code>f * 10^e</code> in the layout of
+     * {@link Double#toString}.
+     */
+    private static int toChars(long f, int e, byte[] buf, int pos) {
+        while (f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+        int len = 1;
+        for (long p = 10; len < 19 && p <= f; p *= 10) {
+            len++;
+        }
+        int exp = e + len - 1;
+
+        if (exp >= 0 && exp < 7) {
+            int intLen = exp + 1;
+            if (len <= intLen) {
+                pos = digits(f, len, buf, pos);
+                for (int i = len; i < intLen; i++) {
+                    buf[pos++] = '0';
+                }
+                buf[pos++] = '.';
+                buf[pos++] = '0';
+                return pos;
+            }
+            pos = digits(f, len, buf, pos);
+            return insertPoint(buf, pos, len - intLen);
+        }
+        if (exp < 0 && exp >= -3) {
+            buf[pos++] = '0';
+            buf[pos++] = '.';
+            for (int i = exp + 1; i < 0; i++) {
+                buf[pos++] = '0';
+            }
+            return digits(f, len, buf, pos);
+        }
+
+        pos = digits(f, len, buf, pos);
+        if (len == 1) {
+            buf[pos++] = '.';
+            buf[pos++] = '0';
+        } else {
+            pos = insertPoint(buf, pos, len - 1);
+        }
+        buf[pos++] = 'E';
+        if (exp < 0) {
+            buf[pos++] = '-';
+            exp = -exp;
+        }
+        if (exp >= 100) {
+            buf[pos++] = (byte) ('0' + exp / 100);
+            exp %= 100;
+            buf[pos++] = (byte) ('0' + exp / 10);
+        } else if (exp >= 10) {
+            buf[pos++] = (byte) ('0' + exp / 10);
+        }
+        buf[pos++] = (byte) ('0' + exp % 10);
+        return pos;
+    }
+
+    private static int digits(long f, int len, byte[] buf, int pos) {
+        for (int i = pos + len - 1; i >= pos; i--) {
+            buf[i] = (byte) ('0' + f % 10);
+            f /= 10;
+        }
+        return pos + len;
+    }
+
+    /**
+     * Inserts a decimal point before the last <code>fraction</code> bytes.
+     */
+    private static int insertPoint(byte[] buf, int end, int fraction) {
+        System.arraycopy(buf, end - fraction, buf, end - fraction + 1, fraction);
+        buf[end - fraction] = '.';
+        return end + 1;
+    }
+
+    private static int special(boolean nan, boolean negative, byte[] buf, int pos) {
+        if (nan) {
+            System.arraycopy(NAN, 0, buf, pos, NAN.length);
+            return pos + NAN.length;
+        }
+        if (negative) {
+            buf[pos++] = '-';
+        }
+        System.arraycopy(INFINITY, 0, buf, pos, INFINITY.length);
+        return pos + INFINITY.length;
+    }
+
+    private static int zero(byte[] buf, int pos) {
+        buf[pos++] = '0';
+        buf[pos++] = '.';
+        buf[pos++] = '0';
+        return pos;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.math.BigInteger;
+
+/**
+ * Parses decimal numbers straight from a <code>char[]</code> slice, with the
+ * same result as {@link Double#parseDouble} and no intermediate strings.
+ * <p>
+ * Up to 19 significant digits are accumulated into a <code>long</code>.
+ * Short values with a small exponent are converted with a single exact
+ * multiplication or division; the others use the Eisel-Lemire algorithm
+ * with a 128-bit table of powers of five, which is correctly rounded.
+ * Inputs it does not handle (<code>NaN</code>, <code>Infinity</code>, hex
+ * floats, longer mantissas that sit close to a rounding boundary, or
+ * malformed text) fall back to {@link Double#parseDouble}, which also
+ * reports the errors.
+ *
+ * @author Николай
+ */
+final class DecimalParser {
+
+    private static final int MIN_POWER = -342;
+    private static final int MAX_POWER = 308;
+
+    /**
+     * Exact powers of ten for the fast path.
+     */
+    private static final double[] POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * 5^q for q in [MIN_POWER, MAX_POWER], normalized to 128 bits (high and
+     * low words); negative powers are rounded up.
+     */
+    private static final long[] FIVE_HIGH = new long[MAX_POWER - MIN_POWER + 1];
+    private static final long[] FIVE_LOW = new long[MAX_POWER - MIN_POWER + 1];
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int q = MIN_POWER; q <= MAX_POWER; q++) {
+            BigInteger c;
+            if (q < 0) {
+                BigInteger power = BigInteger.valueOf(5).pow(-q);
+                int z = power.subtract(BigInteger.ONE).bitLength();
+                int b = q >= -27 ? z + 127 : 2 * z + 128;
+                c = BigInteger.ONE.shiftLeft(b).divide(power).add(BigInteger.ONE);
+            } else {
+                c = BigInteger.valueOf(5).pow(q);
+            }
+            // keep the 128 most significant bits, truncated
+            c = c.bitLength() > 128 ? c.shiftRight(c.bitLength() - 128) : c.shiftLeft(128 - c.bitLength());
+            FIVE_HIGH[q - MIN_POWER] = c.shiftRight(64).longValue();
+            FIVE_LOW[q - MIN_POWER] = c.and(mask).longValue();
+        }
+    }
+
+    private DecimalParser() {
+    }
+
+    /**
+     * Parses the characters in <code>[from, to)</code>.
+     *
+     * @throws NumberFormatException if they are not a number
+     */
+    static double parse(char[] s, int from, int to) throws NumberFormatException {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (s[i] == '-' || s[i] == '+')) {
+            negative = s[i] == '-';
+            i++;
+        }
+
+        // mantissa as an unsigned long of at most 19 digits
+        long w = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean truncated = false;
+        int start = i;
+        for (; i < to; i++) {
+            int d = s[i] - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            if (digits < 19) {
+                w = w * 10 + d;
+                if (w != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+                truncated |= d != 0;
+            }
+        }
+        boolean any = i > start;
+        if (i < to && s[i] == '.') {
+            start = ++i;
+            for (; i < to; i++) {
+                int d = s[i] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                if (digits < 19) {
+                    w = w * 10 + d;
+                    exponent--;
+                    if (w != 0) {
+                        digits++;
+                    }
+                } else {
+                    truncated |= d != 0;
+                }
+            }
+            any |= i > start;
+        }
+        if (!any) {
+            return fallback(s, from, to);
+        }
+        if (i < to && (s[i] == 'e' || s[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (s[i] == '-' || s[i] == '+')) {
+                negativeExponent = s[i] == '-';
+                i++;
+            }
+            start = i;
+            int e = 0;
+            for (; i < to; i++) {
+                int d = s[i] - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                if (e < 100000) {
+                    e = e * 10 + d;
+                }
+            }
+            if (i == start) {
+                return fallback(s, from, to);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i != to) {
+            return fallback(s, from, to);
+        }
+
+        double value;
+        if (w == 0) {
+            value = 0.0;
+        } else if (!truncated && w >= 0 && w <= 1L << 53 && exponent >= -22 && exponent <= 22) {
+            value = exponent < 0 ? w / POWERS[-exponent] : w * POWERS[exponent];
+        } else {
+            long bits = lemire(w, exponent);
+            if (truncated && bits != lemire(w + 1, exponent)) {
+                return fallback(s, from, to);
+            }
+            value = Double.longBitsToDouble(bits);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double fallback(char[] s, int from, int to) throws NumberFormatException {
+        return Double.parseDouble(new String(s, from, to - from));
+    }
+
+    /**
+     * Bits of the double nearest to <code>w * 10^q</code>, for a non-zero
+     * unsigned <code>w</code>.
+     */
+    private static long lemire(long w, int q) {
+        if (q < MIN_POWER) {
+            return 0L;
+        }
+        if (q > MAX_POWER) {
+            return 0x7FF0000000000000L;
+        }
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+
+        int index = q - MIN_POWER;
+        long high = multiplyHigh(w, FIVE_HIGH[index]);
+        long low = w * FIVE_HIGH[index];
+        if ((high & 0x1FF) == 0x1FF) {
+            // the truncated product may be off in the bits that matter
+            long carry = multiplyHigh(w, FIVE_LOW[index]);
+            low += carry;
+            if (Long.compareUnsigned(carry, low) > 0) {
+                high++;
+            }
+        }
+
+        int upper = (int) (high >>> 63);
+        long mantissa = high >>> (upper + 9);
+        int power = (((152170 + 65536) * q) >> 16) + 63 + upper - lz + 1023;
+
+        if (power <= 0) {
+            // subnormal
+            if (-power + 1 >= 64) {
+                return 0L;
+            }
+            mantissa >>>= -power + 1;
+            mantissa += mantissa & 1;
+            mantissa >>>= 1;
+            power = mantissa < 1L << 52 ? 0 : 1;
+            return mantissa | (long) power << 52;
+        }
+
+        if (Long.compareUnsigned(low, 1) <= 0 && q >= -4 && q <= 23 && (mantissa & 3) == 1
+                && mantissa << (upper + 9) == high) {
+            // exactly halfway: round to even
+            mantissa &= ~1L;
+        }
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >= 2L << 52) {
+            mantissa = 1L << 52;
+            power++;
+        }
+        mantissa &= ~(1L << 52);
+        if (power >= 0x7FF) {
+            return 0x7FF0000000000000L;
+        }
+        return mantissa | (long) power << 52;
+    }
+
+    /**
+     * High word of the unsigned 128-bit product.
+     */
+    private static long multiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import neuralnetwork.BinaryVector;
+import neuralnetwork.engine.Dataset;
+
+/**
+ * Binary data set file written by {@link DatasetWriter}, mapped into memory
+ * with {@link FileChannel#map}. Samples are read in place: bit inputs are
+ * copied word by word into a {@link BinaryVector}, with no parsing at all,
+ * and the operating system pages the file in and out as needed, so data sets
+ * larger than the heap work too.
+ * <p>
+ * Files over 1 GB are mapped in several segments of whole rows. Reads do not
+ * move any position, so several threads may share one instance.
+ *
+ * @author Николай
+ */
+public class MappedDataset implements Dataset, Closeable {
+
+    private static final long MAX_SEGMENT = 1L << 30;
+
+    private final String path;
+    private final FileChannel channel;
+    private final DatasetFormat format;
+    private final int size;
+    private final int rowsPerSegment;
+    private final ByteBuffer[] segments;
+    private final LongBuffer[] words;
+
+    public MappedDataset(String path) throws IOException {
+        this.path = path;
+        channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(DatasetFormat.HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            if (header.hasRemaining()) {
+                throw new CsvParserException("Data set header is truncated");
+            }
+            format = DatasetFormat.read(header);
+            if (format.count > Integer.MAX_VALUE) {
+                throw new CsvParserException("Data set has more than " + Integer.MAX_VALUE + " samples");
+            }
+            size = (int) format.count;
+            if (channel.size() < DatasetFormat.HEADER_SIZE + format.count * format.stride) {
+                throw new CsvParserException("Data set is truncated");
+            }
+
+            rowsPerSegment = (int) Math.max(1, MAX_SEGMENT / format.stride);
+            int nSegments = (int) ((size + (long) rowsPerSegment - 1) / rowsPerSegment);
+            segments = new ByteBuffer[nSegments];
+            words = new LongBuffer[nSegments];
+            for (int s = 0; s < nSegments; s++) {
+                long first = (long) s * rowsPerSegment;
+                long rows = Math.min(rowsPerSegment, size - first);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        DatasetFormat.HEADER_SIZE + first * format.stride, rows * format.stride)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                words[s] = segments[s].asLongBuffer();
+            }
+        } catch (IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getInputSize() {
+        return format.inputSize;
+    }
+
+    @Override
+    public int getOutputSize() {
+        return format.outputSize;
+    }
+
+    @Override
+    public boolean isBinary() {
+        return format.inputEncoding == DatasetFormat.INPUT_BITS;
+    }
+
+    /**
+     * Whether the targets are stored as class indices of one-hot vectors.
+     */
+    public boolean hasClassIndices() {
+        return format.targetEncoding == DatasetFormat.TARGET_CLASS_INDEX;
+    }
+
+    @Override
+    public void readInput(int sample, BinaryVector input) {
+        if (!isBinary()) {
+            throw new UnsupportedOperationException("Data set inputs are not binary");
+        }
+        if (input.size() != format.inputSize) {
+            throw new IllegalArgumentException("Vector has " + input.size() + " inputs instead of " + format.inputSize);
+        }
+        checkSample(sample);
+        long[] dst = input.getWords();
+        words[sample / rowsPerSegment].get((sample % rowsPerSegment) * (format.stride >>> 3), dst, 0, dst.length);
+    }
+
+    @Override
+    public void readInput(int sample, double[] input) {
+        checkSample(sample);
+        ByteBuffer segment = segments[sample / rowsPerSegment];
+        int row = (sample % rowsPerSegment) * format.stride;
+        int n = format.inputSize;
+        if (isBinary()) {
+            Arrays.fill(input, 0, n, 0.0);
+            for (int w = 0; w < (n + 63) >>> 6; w++) {
+                long bits = segment.getLong(row + 8 * w);
+                while (bits != 0) {
+                    input[(w << 6) + Long.numberOfTrailingZeros(bits)] = 1.0;
+                    bits &= bits - 1;
+                }
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                input[i] = segment.getFloat(row + 4 * i);
+            }
+        }
+    }
+
+    @Override
+    public void readTarget(int sample, double[] target) {
+        checkSample(sample);
+        ByteBuffer segment = segments[sample / rowsPerSegment];
+        int at = (sample % rowsPerSegment) * format.stride + format.targetOffset;
+        if (hasClassIndices()) {
+            Arrays.fill(target, 0, format.outputSize, 0.0);
+            target[segment.getInt(at)] = 1.0;
+        } else {
+            for (int o = 0; o < format.outputSize; o++) {
+                target[o] = segment.getFloat(at + 4 * o);
+            }
+        }
+    }
+
+    private void checkSample(int sample) {
+        if (sample < 0 || sample >= size) {
+            throw new ArrayIndexOutOfBoundsException(sample);
+        }
+    }
+
+    /**
+     * Closes the file. The mapping itself is released when the buffers are
+     * garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import neuralnetwork.BinaryVector;
+
+/**
+ * Training samples with bit-packed inputs, as read by {@link TrainSetReader}.
+ *
+ * @author Николай
+ */
+public class TrainSet {
+
+    private final int inputSize;
+    private final int outputSize;
+    private final BinaryVector[] inputs;
+    private final double[][] targets;
+
+    public TrainSet(int inputSize, int outputSize, BinaryVector[] inputs, double[][] targets) {
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("Train set has " + inputs.length + " inputs and " + targets.length + " targets");
+        }
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.inputs = inputs;
+        this.targets = targets;
+    }
+
+    public int size() {
+        return inputs.length;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    public BinaryVector getInput(int sample) {
+        return inputs[sample];
+    }
+
+    public double[] getTarget(int sample) {
+        return targets[sample];
+    }
+
+    public BinaryVector[] getInputs() {
+        return inputs;
+    }
+
+    public double[][] getTargets() {
+        return targets;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import neuralnetwork.BinaryVector;
+
+/**
+ * Reads a training file like <code>train.csv</code> into bit-packed samples.
+ * <p>
+ * The first line is <code>count,inputs,outputs</code>. Every sample is a line
+ * of <code>inputs</code> '0'/'1' characters followed by a line of
+ * <code>outputs</code> comma-separated target values; blank lines between
+ * them are skipped. Samples are read up to the end of the file, the count in
+ * the header is only used to size the result.
+ *
+ * @author Николай
+ */
+public class TrainSetReader {
+
+    public TrainSet read(String path) throws IOException {
+        try (Reader r = new FileReader(path)) {
+            return read(r);
+        }
+    }
+
+    public TrainSet read(Reader reader) throws IOException {
+        CsvRowReader r = new CsvRowReader(reader);
+
+        int[] header = readHeader(r);
+        int count = header[0];
+        int nInputs = header[1];
+        int nOutputs = header[2];
+
+        List<BinaryVector> inputs = new ArrayList<>(count);
+        List<double[]> targets = new ArrayList<>(count);
+        while (true) {
+            BinaryVector input = new BinaryVector(nInputs);
+            double[] target = new double[nOutputs];
+            if (!readSample(r, inputs.size(), input, target)) {
+                break;
+            }
+            inputs.add(input);
+            targets.add(target);
+        }
+
+        return new TrainSet(nInputs, nOutputs,
+                inputs.toArray(new BinaryVector[inputs.size()]),
+                targets.toArray(new double[targets.size()][]));
+    }
+
+    /**
+     * Reads the header line.
+     *
+     * @return count, inputs and outputs
+     */
+    static int[] readHeader(CsvRowReader r) throws IOException {
+        double[] header = new double[3];
+        int n;
+        try {
+            n = r.readRow(header);
+        } catch (NumberFormatException ex) {
+            throw new CsvParserException("Header must be count,inputs,outputs", ex);
+        }
+        if (n < 0) {
+            throw new CsvParserException("Train set is empty");
+        }
+        int[] result = new int[3];
+        for (int i = 0; i < 3; i++) {
+            result[i] = (int) header[i];
+            if (n != 3 || result[i] != header[i]) {
+                throw new CsvParserException("Header must be count,inputs,outputs");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the next sample into <code>input</code> and <code>target</code>,
+     * whose sizes are the ones of the header.
+     *
+     * @param index number of the sample, for error messages
+     * @return <code>false</code> at the end of the file
+     */
+    static boolean readSample(CsvRowReader r, int index, BinaryVector input, double[] target) throws IOException {
+        int nInputs;
+        try {
+            nInputs = r.readBits(input);
+        } catch (NumberFormatException ex) {
+            throw new CsvParserException("Sample " + index + " is not binary", ex);
+        }
+        if (nInputs < 0) {
+            return false;
+        }
+        if (nInputs != input.size()) {
+            throw new CsvParserException("Sample " + index + " has " + nInputs + " inputs instead of " + input.size());
+        }
+
+        int nTargets = r.readRow(target);
+        if (nTargets < 0) {
+            throw new CsvParserException("Sample " + index + " has no targets");
+        }
+        if (nTargets != target.length) {
+            throw new CsvParserException("Sample " + index + " has " + nTargets + " targets instead of " + target.length);
+        }
+        return true;
+    }
+}
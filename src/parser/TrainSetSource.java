@@ -0,0 +1,89 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package parser;
+
+import java.io.FileReader;
+import java.io.IOException;
+import neuralnetwork.engine.DatasetSource;
+import neuralnetwork.engine.SampleBatch;
+
+/**
+ * Streams a training file in the format of {@link TrainSetReader} without
+ * loading it: every pass reopens the file and decodes the samples straight
+ * into the caller's {@link SampleBatch} buffers.
+ *
+ * @author Николай
+ */
+public class TrainSetSource implements DatasetSource {
+
+    private final String path;
+    private final int inputSize;
+    private final int outputSize;
+
+    private CsvRowReader reader;
+    private int index;
+
+    /**
+     * Opens the file and reads its header.
+     */
+    public TrainSetSource(String path) throws IOException {
+        this.path = path;
+        reader = new CsvRowReader(new FileReader(path));
+        try {
+            int[] header = TrainSetReader.readHeader(reader);
+            inputSize = header[1];
+            outputSize = header[2];
+        } catch (IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    @Override
+    public int getOutputSize() {
+        return outputSize;
+    }
+
+    @Override
+    public void rewind() throws IOException {
+        close();
+        reader = new CsvRowReader(new FileReader(path));
+        TrainSetReader.readHeader(reader);
+        index = 0;
+    }
+
+    @Override
+    public int read(SampleBatch batch) throws IOException {
+        if (reader == null) {
+            throw new IOException("Train set " + path + " is closed");
+        }
+        int count = 0;
+        while (count < batch.getCapacity()
+                && TrainSetReader.readSample(reader, index, batch.getInput(count), batch.getTarget(count))) {
+            count++;
+            index++;
+        }
+        batch.setSize(count);
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
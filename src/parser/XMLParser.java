@@ -5,22 +5,38 @@
  */
 package parser;
 
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import neuralnetwork.NeuralNetwork;
+import neuralnetwork.activation.ActivationFunction;
+import neuralnetwork.activation.SigmoidActivationFunction;
+import neuralnetwork.engine.Precision;
+import neuralnetwork.monitor.ModelLoadEvent;
+import neuralnetwork.monitor.ModelSaveEvent;
 import neuralnetwork.neuron.Neuron;
 import neuralnetwork.neuron.Synapse;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 
 /**
  *
@@ -153,84 +169,275 @@ public class XMLParser implements NetworkParser {
 //    }
     @Override
     public NeuralNetwork getNetwork() {
-        throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+        try {
+            return read(path);
+        } catch (IOException | XMLStreamException ex) {
+            Logger.getLogger(XMLParser.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
     }
 
     @Override
     public void setNetwork(NeuralNetwork nn) {
         try {
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = null;
-            docBuilder = dbf.newDocumentBuilder();
-            Document doc = docBuilder.getDOMImplementation().createDocument("", "network", null);
-            Element root = doc.getDocumentElement();
-            for (Neuron n : nn.inputNeurons) {
-                Element input = doc.createElement("neuron");
-                input.setAttribute("type", "input");
-
-                Element id = doc.createElement("id");
-                id.appendChild(doc.createTextNode(String.valueOf(n.id)));
-                input.appendChild(id);
-
-                root.appendChild(input);
+            write(nn, path);
+        } catch (IOException | XMLStreamException ex) {
+            Logger.getLogger(XMLParser.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * Loads a network of any topology. Files written before the
+     * <code>function</code> attribute existed get sigmoid neurons.
+     * <p>
+     * The file is read with StAX, one element at a time. Connections from a
+     * neuron defined further down the file are kept aside and made at the
+     * end.
+     *
+     * @throws CsvParserException if the file does not describe a network
+     */
+    public static NeuralNetwork read(String path) throws IOException, XMLStreamException {
+        ModelLoadEvent event = new ModelLoadEvent();
+        event.begin();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        NeuralNetwork network;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path))) {
+            XMLStreamReader r = factory.createXMLStreamReader(in);
+            try {
+                network = read(r);
+            } finally {
+                r.close();
             }
-            for (Neuron n : nn.hiddenNeurons) {
-                Element hidden = doc.createElement("neuron");
-                hidden.setAttribute("type", "hidden");
-
-                Element id = doc.createElement("id");
-                id.appendChild(doc.createTextNode(String.valueOf(n.id)));
-                hidden.appendChild(id);
-
-                Element conn = doc.createElement("connections");
-                hidden.appendChild(conn);
-                for (Synapse syn : n.getInputsSynapse()) {
-                    Neuron neuron = syn.getA();
-                    if (neuron.id == n.id) {
-                        neuron = syn.getB();
-                    }
-                    Element c = doc.createElement("connection");
-                    c.setAttribute("weight", String.valueOf(syn.getWeight()));
-                    c.appendChild(doc.createTextNode(String.valueOf(neuron.id)));
-                    conn.appendChild(c);
-                }
+        }
+        event.finish("xml", path);
+        return network;
+    }
 
-                root.appendChild(hidden);
+    private static NeuralNetwork read(XMLStreamReader r) throws XMLStreamException {
+        NeuralNetwork network = new NeuralNetwork();
+        Precision precision = Precision.DOUBLE;
+        Map<Integer, Neuron> neurons = new HashMap<>();
+        List<Connection> pending = new ArrayList<>();
+
+        String type = null;
+        ActivationFunction function = null;
+        Neuron current = null;
+        while (r.hasNext()) {
+            if (r.next() != XMLStreamConstants.START_ELEMENT) {
+                continue;
             }
-            for (Neuron n : nn.outputNeurons) {
-                Element output = doc.createElement("neuron");
-                output.setAttribute("type", "output");
-
-                Element id = doc.createElement("id");
-                id.appendChild(doc.createTextNode(String.valueOf(n.id)));
-                output.appendChild(id);
-
-                Element conn = doc.createElement("connections");
-                output.appendChild(conn);
-                for (Synapse syn : n.getInputsSynapse()) {
-                    Neuron neuron = syn.getA();
-                    if (neuron.id == n.id) {
-                        neuron = syn.getB();
+            switch (r.getLocalName()) {
+                case "network":
+                    String name = r.getAttributeValue(null, "precision");
+                    if (name != null) {
+                        try {
+                            precision = Precision.valueOf(name);
+                        } catch (IllegalArgumentException ex) {
+                            throw new CsvParserException("Unknown precision " + name, ex);
+                        }
+                    }
+                    break;
+                case "neuron":
+                    type = r.getAttributeValue(null, "type");
+                    String functionName = r.getAttributeValue(null, "function");
+                    function = functionName == null
+                            ? new SigmoidActivationFunction()
+                            : Activations.forName(functionName);
+                    current = null;
+                    break;
+                case "id":
+                    if (type == null) {
+                        throw new CsvParserException("Neuron id outside of a neuron");
+                    }
+                    int id = parseId(r.getElementText());
+                    current = new Neuron(function);
+                    if (neurons.put(id, current) != null) {
+                        throw new CsvParserException("Neuron " + id + " is defined twice");
                     }
-                    Element c = doc.createElement("connection");
-                    c.setAttribute("weight", String.valueOf(syn.getWeight()));
-                    c.appendChild(doc.createTextNode(String.valueOf(neuron.id)));
-                    conn.appendChild(c);
+                    switch (type) {
+                        case "input":
+                            network.addInputNeuron(current);
+                            break;
+                        case "hidden":
+                            network.addHiddenNeuron(current);
+                            break;
+                        case "output":
+                            network.addOutputNeuron(current);
+                            break;
+                        default:
+                            throw new CsvParserException("Unknown neuron type " + type);
+                    }
+                    type = null;
+                    break;
+                case "connection":
+                    if (current == null) {
+                        throw new CsvParserException("Connection outside of a neuron");
+                    }
+                    String weight = r.getAttributeValue(null, "weight");
+                    if (weight == null) {
+                        throw new CsvParserException("Connection to neuron " + current.id + " has no weight");
+                    }
+                    double w;
+                    try {
+                        w = Double.parseDouble(weight);
+                    } catch (NumberFormatException ex) {
+                        throw new CsvParserException("Bad weight " + weight, ex);
+                    }
+                    int from = parseId(r.getElementText());
+                    Neuron source = neurons.get(from);
+                    if (source != null) {
+                        Neuron.connect(source, current, w);
+                    } else {
+                        pending.add(new Connection(from, current, w));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        for (Connection connection : pending) {
+            Neuron source = neurons.get(connection.from);
+            if (source == null) {
+                throw new CsvParserException("Connection from unknown neuron " + connection.from);
+            }
+            Neuron.connect(source, connection.to, connection.weight);
+        }
+        network.setPrecision(precision);
+        return network;
+    }
+
+    /**
+     * Connection from a neuron defined further down the file.
+     */
+    private static class Connection {
+
+        final int from;
+        final Neuron to;
+        final double weight;
+
+        Connection(int from, Neuron to, double weight) {
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+        }
+    }
+
+    private static int parseId(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException ex) {
+            throw new CsvParserException("Bad neuron id " + text, ex);
+        }
+    }
+
+    /**
+     * Saves a network of any topology. Every neuron the outputs depend on is
+     * written, including ones missing from <code>hiddenNeurons</code>, in an
+     * order where connections only refer to neurons written before.
+     * <p>
+     * The document is streamed with StAX, so nothing but the network itself
+     * is held in memory. It goes to <code>path + ".tmp"</code>, which replaces
+     * <code>path</code> once it is on disk, so a failed save keeps the
+     * previous file.
+     *
+     * @throws IllegalArgumentException if the network has a cycle
+     */
+    public static void write(NeuralNetwork nn, String path) throws IOException, XMLStreamException {
+        ModelSaveEvent event = new ModelSaveEvent();
+        event.begin();
+        List<Neuron> hidden = hiddenInOrder(nn);
+        Path temp = AtomicFiles.temp(path);
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                    OutputStream out = new BufferedOutputStream(file)) {
+                XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+                w.writeStartDocument("UTF-8", "1.0");
+                w.writeStartElement("network");
+                w.writeAttribute("precision", nn.getPrecision().name());
+                for (Neuron n : nn.inputNeurons) {
+                    writeNeuron(w, n, "input", nn.getPrecision());
+                }
+                for (Neuron n : hidden) {
+                    writeNeuron(w, n, "hidden", nn.getPrecision());
                 }
+                for (Neuron n : nn.outputNeurons) {
+                    writeNeuron(w, n, "output", nn.getPrecision());
+                }
+                w.writeCharacters("\n");
+                w.writeEndElement();
+                w.writeEndDocument();
+                w.close();
+                out.flush();
+                file.getFD().sync();
+            }
+            AtomicFiles.replace(temp, path);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        event.finish("xml", path);
+    }
+
+    private static void writeNeuron(XMLStreamWriter w, Neuron n, String type, Precision precision) throws XMLStreamException {
+        w.writeCharacters("\n");
+        w.writeStartElement("neuron");
+        w.writeAttribute("type", type);
+        w.writeAttribute("function", Activations.nameOf(n.getActivationFunction()));
 
-                root.appendChild(output);
+        w.writeStartElement("id");
+        w.writeCharacters(String.valueOf(n.id));
+        w.writeEndElement();
+
+        if (!n.getInputsSynapse().isEmpty()) {
+            w.writeStartElement("connections");
+            for (Synapse syn : n.getInputsSynapse()) {
+                Neuron neuron = syn.getA();
+                if (neuron.id == n.id) {
+                    neuron = syn.getB();
+                }
+                w.writeStartElement("connection");
+                w.writeAttribute("weight", precision.format(syn.getWeight()));
+                w.writeCharacters(String.valueOf(neuron.id));
+                w.writeEndElement();
             }
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
 
-            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(new File(path)));
-        } catch (ParserConfigurationException ex) {
-            Logger.getLogger(XMLParser.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (TransformerConfigurationException ex) {
-            Logger.getLogger(XMLParser.class.getName()).log(Level.SEVERE, null, ex);
-        } catch (TransformerException ex) {
-            Logger.getLogger(XMLParser.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * The hidden neurons, then the other neurons the outputs depend on, in
+     * an order where every neuron comes after its inputs.
+     */
+    private static List<Neuron> hiddenInOrder(NeuralNetwork nn) {
+        Set<Neuron> fixed = new HashSet<>(nn.inputNeurons);
+        fixed.addAll(nn.outputNeurons);
+        Set<Neuron> order = new LinkedHashSet<>();
+        Set<Neuron> visiting = new HashSet<>();
+        for (Neuron n : nn.hiddenNeurons) {
+            visit(n, fixed, order, visiting);
         }
+        for (Neuron n : nn.outputNeurons) {
+            for (Synapse syn : n.getInputsSynapse()) {
+                visit(syn.getA(), fixed, order, visiting);
+            }
+        }
+        return new ArrayList<>(order);
+    }
 
-        //throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+    private static void visit(Neuron n, Set<Neuron> fixed, Set<Neuron> order, Set<Neuron> visiting) {
+        if (fixed.contains(n) || order.contains(n)) {
+            return;
+        }
+        if (!visiting.add(n)) {
+            throw new IllegalArgumentException("Network has a cycle through " + n);
+        }
+        for (Synapse syn : n.getInputsSynapse()) {
+            visit(syn.getA(), fixed, order, visiting);
+        }
+        visiting.remove(n);
+        order.add(n);
     }
 
 }